@@ -7,10 +7,13 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import com.dyx.simpledb.backend.dm.DataManager;
+import com.dyx.simpledb.backend.server.Executor;
 import com.dyx.simpledb.backend.server.Server;
 import com.dyx.simpledb.backend.tbm.TableManager;
 import com.dyx.simpledb.backend.tm.TransactionManager;
+import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
 import com.dyx.simpledb.backend.utils.Panic;
+import com.dyx.simpledb.backend.vm.DeadlockPolicy;
 import com.dyx.simpledb.backend.vm.VersionManager;
 import com.dyx.simpledb.backend.vm.VersionManagerImpl;
 import com.dyx.simpledb.common.Error;
@@ -30,11 +33,18 @@ public class Launcher {
         options.addOption("open", true, "-open D:/");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("asyncDelay", true, "-asyncDelay 100");
+        options.addOption("statementTimeout", true, "-statementTimeout 30000");
+        options.addOption("idleTimeout", true, "-idleTimeout 600000");
+        options.addOption("deadlockPolicy", true, "-deadlockPolicy detect|wait_die|wound_wait");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
 
         if (cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            Executor.setStatementTimeout(parseTimeout(cmd.getOptionValue("statementTimeout")));
+            Executor.setIdleTimeout(parseTimeout(cmd.getOptionValue("idleTimeout")));
+            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")), parseAsyncDelay(cmd.getOptionValue("asyncDelay")),
+                    parseDeadlockPolicy(cmd.getOptionValue("deadlockPolicy")));
             return;
         }
         if (cmd.hasOption("create")) {
@@ -65,19 +75,68 @@ public class Launcher {
     /**
      * 启动已有的数据库
      */
-    private static void openDB(String path, long mem) {
-        // 打开事务管理器
+    private static void openDB(String path, long mem, long asyncDelay, DeadlockPolicy policy) {
+        // 打开事务管理器，并设置异步提交的最长持久化间隔
         TransactionManager tm = TransactionManager.open(path);
+        tm.setAsyncCommitDelay(asyncDelay);
         // 打开数据管理器，传入路径、内存大小和事务管理器
         DataManager dm = DataManager.open(path, mem, tm);
         // 创建版本管理器，传入事务管理器和数据管理器
         VersionManager vm = new VersionManagerImpl(tm, dm);
+        vm.setDeadlockPolicy(policy);
         // 打开表管理器，传入路径、版本管理器和数据管理器
         TableManager tbm = TableManager.open(path, vm, dm);
         // 创建服务器对象，并启动服务器
         new Server(port, tbm).start();
     }
 
+    // 解析异步提交的持久化间隔，单位毫秒
+    private static long parseAsyncDelay(String delayStr) {
+        if (delayStr == null || "".equals(delayStr)) {
+            return TransactionManagerImpl.DEFAULT_ASYNC_COMMIT_DELAY;
+        }
+        long delay = 0;
+        try {
+            delay = Long.parseLong(delayStr);
+        } catch (NumberFormatException e) {
+            Panic.panic(Error.InvalidCommandException);
+        }
+        if (delay <= 0) {
+            Panic.panic(Error.InvalidCommandException);
+        }
+        return delay;
+    }
+
+    // 解析记录锁冲突时的死锁处理策略，默认检测等待链
+    private static DeadlockPolicy parseDeadlockPolicy(String policyStr) {
+        if (policyStr == null || "".equals(policyStr)) {
+            return DeadlockPolicy.DETECT;
+        }
+        try {
+            return DeadlockPolicy.valueOf(policyStr.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Panic.panic(Error.InvalidCommandException);
+        }
+        return DeadlockPolicy.DETECT;
+    }
+
+    // 解析超时时间，单位毫秒，未指定或为0表示不限制
+    private static long parseTimeout(String timeoutStr) {
+        if (timeoutStr == null || "".equals(timeoutStr)) {
+            return 0;
+        }
+        long timeout = 0;
+        try {
+            timeout = Long.parseLong(timeoutStr);
+        } catch (NumberFormatException e) {
+            Panic.panic(Error.InvalidCommandException);
+        }
+        if (timeout < 0) {
+            Panic.panic(Error.InvalidCommandException);
+        }
+        return timeout;
+    }
+
     // 定义一个方法，用于解析命令行参数中的内存大小
     private static long parseMem(String memStr) {
         // 如果内存大小为空或者为空字符串，那么返回默认的内存大小
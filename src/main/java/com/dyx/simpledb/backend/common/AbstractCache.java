@@ -1,7 +1,6 @@
 package com.dyx.simpledb.backend.common;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -9,28 +8,67 @@ import com.dyx.simpledb.common.Error;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * 由MemoryManager设置字节预算后，引用数降为0的资源不立即写回，按LRU顺序留在缓存中，
+ * 占用超过预算时从最久未用的开始驱逐；没有预算时引用数降为0即写回并移出缓存
  */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache;                     // 实际缓存的数据
-    private HashMap<Long, Integer> references;          // 元素的引用个数
-    private HashMap<Long, Boolean> getting;             // 正在获取某资源的线程
+
+    // 缓存中的一个资源，引用数为0时挂在LRU链表上
+    private static class Holder<T> {
+        final long key;
+        final T obj;
+        final long size;
+        int refs;
+        Holder<T> prev, next;
+
+        Holder(long key, T obj, long size) {
+            this.key = key;
+            this.obj = obj;
+            this.size = size;
+        }
+    }
+
+    private LongHashMap<Holder<T>> cache;               // 实际缓存的数据及其引用个数
+    private LongHashSet getting;                        // 正在被某线程获取的资源
+    private Holder<T> lruHead, lruTail;                 // 未被引用的资源，head为最久未用的
 
     private int maxResource;                            // 缓存的最大缓存资源数
-    private int count = 0;                              // 缓存中元素的个数
+    private int count = 0;                              // 缓存中元素的个数，含正在获取的
+    private long maxBytes;                              // 字节预算，为0时不保留未被引用的资源
+    private long usedBytes;                             // 缓存中资源占用的字节数
+    private int idle;                                   // 未被引用的资源个数
+    private long hits, misses, evictions;
+    private MemoryManager memory;                       // 缓存满时请其他缓存释放持有的引用
     private Lock lock;
 
     public AbstractCache(int maxResource) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
+        cache = new LongHashMap<>();
+        getting = new LongHashSet();
         lock = new ReentrantLock();
     }
 
+    void setBudget(long maxBytes, MemoryManager memory) {
+        lock.lock();
+        try {
+            this.maxBytes = maxBytes;
+            this.memory = memory;
+            shrink();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     protected T get(long key) throws Exception {
+        return get(key, this::getForCache);
+    }
+
+    // 未命中时由loader取得资源，用于调用者手中已有资源所需数据的情况，如批量读取
+    protected T get(long key, Loader<T> loader) throws Exception {
+        boolean reclaimed = false;
         while(true) {
             lock.lock();
-            if(getting.containsKey(key)) {
+            if(getting.contains(key)) {
                 // 请求的资源正在被其他线程获取
                 lock.unlock();
                 try {
@@ -42,28 +80,45 @@ public abstract class AbstractCache<T> {
                 continue;
             }
 
-            if(cache.containsKey(key)) {
+            Holder<T> h = cache.get(key);
+            if(h != null && h.refs == 0 && isStale(h.obj)) {
+                // 未被引用期间已失效，丢弃后重新获取
+                evict(h);
+                h = null;
+            }
+            if(h != null) {
                 // 资源在缓存中，直接返回
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
+                if(h.refs ++ == 0) {
+                    unlinkIdle(h);
+                }
+                hits ++;
                 lock.unlock();
-                return obj;
+                return h.obj;
             }
 
-            // 尝试获取该资源
+            // 尝试获取该资源，缓存已满时先驱逐最久未用的资源
+            if(maxResource > 0 && count == maxResource && lruHead != null) {
+                evict(lruHead);
+            }
             if(maxResource > 0 && count == maxResource) {
                 lock.unlock();
+                // 其余资源都被引用，请上层缓存驱逐未被引用的资源、释放它们持有的引用后重试一次
+                if(!reclaimed && memory != null && memory.reclaim(this)) {
+                    reclaimed = true;
+                    continue;
+                }
                 throw Error.CacheFullException;
             }
             count ++;
-            getting.put(key, true);
+            misses ++;
+            getting.add(key);
             lock.unlock();
             break;
         }
 
         T obj = null;
         try {
-            obj = getForCache(key);
+            obj = loader.load(key);
         } catch(Exception e) {
             lock.lock();
             count --;
@@ -73,11 +128,16 @@ public abstract class AbstractCache<T> {
         }
 
         lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
-        
+        try {
+            getting.remove(key);
+            Holder<T> h = new Holder<>(key, obj, sizeOf(obj));
+            h.refs = 1;
+            cache.put(key, h);
+            usedBytes += h.size;
+            shrink();
+        } finally {
+            lock.unlock();
+        }
         return obj;
     }
 
@@ -87,45 +147,130 @@ public abstract class AbstractCache<T> {
     protected void release(long key) {
         lock.lock();
         try {
-            // 检查 references 中是否包含该 key
-            if (!references.containsKey(key)) {
-                // 如果 references 中不包含该 key，直接返回，不进行释放
+            Holder<T> h = cache.get(key);
+            // 不在缓存中或未被引用时，直接返回，不进行释放
+            if(h == null || h.refs == 0) {
                 return;
             }
+            if(-- h.refs == 0) {
+                linkIdle(h);
+                shrink();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            int ref = references.get(key)-1;
-            if(ref == 0) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count --;
-            } else {
-                references.put(key, ref);
+    /**
+     * 驱逐一个未被引用的资源，资源正被引用或不在缓存中时不做任何事
+     */
+    protected void evict(long key) {
+        lock.lock();
+        try {
+            Holder<T> h = cache.get(key);
+            if(h != null && h.refs == 0) {
+                evict(h);
             }
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 驱逐所有未被引用的资源，返回驱逐的个数
+     */
+    public int evictIdle() {
+        lock.lock();
+        try {
+            int n = 0;
+            while(lruHead != null) {
+                evict(lruHead);
+                n ++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * 关闭缓存，写回所有资源
      */
     protected void close() {
         lock.lock();
         try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+            for (long key : cache.keys()) {
+                Holder<T> h = cache.remove(key);
+                releaseForCache(h.obj);
             }
+            lruHead = lruTail = null;
+            idle = 0;
+            count = 0;
+            usedBytes = 0;
         } finally {
             lock.unlock();
         }
     }
 
+    // 没有预算时驱逐全部未被引用的资源，否则驱逐到占用不超过预算
+    private void shrink() {
+        while(lruHead != null && (maxBytes == 0 || usedBytes > maxBytes)) {
+            evict(lruHead);
+        }
+    }
+
+    private void evict(Holder<T> h) {
+        unlinkIdle(h);
+        cache.remove(h.key);
+        count --;
+        usedBytes -= h.size;
+        evictions ++;
+        releaseForCache(h.obj);
+    }
+
+    // 挂到LRU链表尾部
+    private void linkIdle(Holder<T> h) {
+        h.prev = lruTail;
+        h.next = null;
+        if(lruTail != null) {
+            lruTail.next = h;
+        } else {
+            lruHead = h;
+        }
+        lruTail = h;
+        idle ++;
+    }
+
+    private void unlinkIdle(Holder<T> h) {
+        if(h.prev != null) {
+            h.prev.next = h.next;
+        } else {
+            lruHead = h.next;
+        }
+        if(h.next != null) {
+            h.next.prev = h.prev;
+        } else {
+            lruTail = h.prev;
+        }
+        h.prev = h.next = null;
+        idle --;
+    }
+
+    // 填入缓存的占用情况，供MemoryManager汇报
+    void fillStats(Map<String, Object> row) {
+        lock.lock();
+        try {
+            row.put("used", usedBytes);
+            row.put("budget", maxBytes);
+            row.put("cached", cache.size());
+            row.put("idle", idle);
+            row.put("hits", hits);
+            row.put("misses", misses);
+            row.put("evictions", evictions);
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
      * 当资源不在缓存时的获取行为
@@ -135,4 +280,19 @@ public abstract class AbstractCache<T> {
      * 当资源被驱逐时的写回行为
      */
     protected abstract void releaseForCache(T obj);
+    /**
+     * 资源占用的内存字节数，按预算驱逐时使用
+     */
+    protected abstract long sizeOf(T obj);
+
+    /**
+     * 未被引用的资源是否已失效，失效的资源不再从缓存返回，而是重新获取
+     */
+    protected boolean isStale(T obj) {
+        return false;
+    }
+
+    protected interface Loader<T> {
+        T load(long key) throws Exception;
+    }
 }
@@ -0,0 +1,66 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * long的变长数组，元素不装箱，也可作为栈使用
+ * 非线程安全
+ */
+public class LongArrayList {
+
+    private long[] elems;
+    private int size;
+
+    public LongArrayList() {
+        this(8);
+    }
+
+    public LongArrayList(int capacity) {
+        elems = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(long v) {
+        if(size == elems.length) {
+            elems = Arrays.copyOf(elems, size << 1);
+        }
+        elems[size ++] = v;
+    }
+
+    public long get(int i) {
+        if(i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return elems[i];
+    }
+
+    public void set(int i, long v) {
+        if(i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        elems[i] = v;
+    }
+
+    // 移除并返回最后一个元素
+    public long removeLast() {
+        if(size == 0) {
+            throw new IndexOutOfBoundsException("Index: -1, Size: 0");
+        }
+        return elems[-- size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elems, size);
+    }
+}
@@ -0,0 +1,181 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 以long为键的开放寻址哈希表，键不装箱
+ * 线性探测，删除时将后续元素前移填补空位，不留墓碑
+ * 键0用作空槽标记，单独存放在数组末尾的额外槽中
+ * 非线程安全
+ */
+public class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashMap(int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    // 容纳expected个元素且装载因子不超过3/4的最小2的幂
+    static int capacityFor(int expected) {
+        int cap = MIN_CAPACITY;
+        while(cap - (cap >>> 2) < expected) {
+            cap <<= 1;
+        }
+        return cap;
+    }
+
+    // 打散键的高低位，连续的uid（页号在高32位）也能均匀分布
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap + 1];
+        values = new Object[cap + 1];
+        mask = cap - 1;
+    }
+
+    // 键所在的槽，不存在时返回-1
+    private int indexOf(long key) {
+        if(key == 0) {
+            return hasZero ? mask + 1 : -1;
+        }
+        int i = hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    // 返回键原来对应的值
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(key == 0) {
+            V old = (V) values[mask + 1];
+            values[mask + 1] = value;
+            if(!hasZero) {
+                hasZero = true;
+                size ++;
+            }
+            return old;
+        }
+        int i = hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size ++;
+        if(size > (mask + 1) - ((mask + 1) >>> 2)) {
+            rehash((mask + 1) << 1);
+        }
+        return null;
+    }
+
+    // 返回被删除的值
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if(i < 0) return null;
+        V old = (V) values[i];
+        size --;
+        if(key == 0) {
+            hasZero = false;
+            values[i] = null;
+        } else {
+            shiftBack(i);
+        }
+        return old;
+    }
+
+    // 空出槽free后，将探测链上本应在free及之前的元素前移
+    private void shiftBack(int free) {
+        int i = free;
+        while(true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if(k == 0) break;
+            int home = hash(k) & mask;
+            boolean stay = free <= i ? (free < home && home <= i) : (free < home || home <= i);
+            if(stay) continue;
+            keys[free] = k;
+            values[free] = values[i];
+            free = i;
+        }
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldCap = mask + 1;
+        allocate(cap);
+        for(int j = 0; j < oldCap; j ++) {
+            long k = oldKeys[j];
+            if(k == 0) continue;
+            int i = hash(k) & mask;
+            while(keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+        values[mask + 1] = oldValues[oldCap];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        hasZero = false;
+        size = 0;
+    }
+
+    // 所有键的拷贝，遍历期间可以修改本表
+    public long[] keys() {
+        long[] res = new long[size];
+        int n = 0;
+        for(int j = 0; j <= mask; j ++) {
+            if(keys[j] != 0) res[n ++] = keys[j];
+        }
+        if(hasZero) res[n] = 0;
+        return res;
+    }
+}
@@ -0,0 +1,124 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * long的开放寻址哈希集合，元素不装箱
+ * 探测和删除方式同LongHashMap
+ * 非线程安全
+ */
+public class LongHashSet {
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(8);
+    }
+
+    public LongHashSet(int expected) {
+        keys = new long[LongHashMap.capacityFor(expected)];
+        mask = keys.length - 1;
+    }
+
+    public boolean contains(long key) {
+        if(key == 0) return hasZero;
+        int i = LongHashMap.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    // 元素原本不在集合中时返回true
+    public boolean add(long key) {
+        if(key == 0) {
+            if(hasZero) return false;
+            hasZero = true;
+            size ++;
+            return true;
+        }
+        int i = LongHashMap.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        size ++;
+        if(size > keys.length - (keys.length >>> 2)) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    // 元素原本在集合中时返回true
+    public boolean remove(long key) {
+        if(key == 0) {
+            if(!hasZero) return false;
+            hasZero = false;
+            size --;
+            return true;
+        }
+        int i = LongHashMap.hash(key) & mask;
+        while(keys[i] != key) {
+            if(keys[i] == 0) return false;
+            i = (i + 1) & mask;
+        }
+        size --;
+        int free = i;
+        while(true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if(k == 0) break;
+            int home = LongHashMap.hash(k) & mask;
+            boolean stay = free <= i ? (free < home && home <= i) : (free < home || home <= i);
+            if(stay) continue;
+            keys[free] = k;
+            free = i;
+        }
+        keys[free] = 0;
+        return true;
+    }
+
+    private void rehash(int cap) {
+        long[] old = keys;
+        keys = new long[cap];
+        mask = cap - 1;
+        for(long k : old) {
+            if(k == 0) continue;
+            int i = LongHashMap.hash(k) & mask;
+            while(keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    // 所有元素的拷贝，顺序不确定
+    public long[] toArray() {
+        long[] res = new long[size];
+        int n = 0;
+        for(long k : keys) {
+            if(k != 0) res[n ++] = k;
+        }
+        if(hasZero) res[n] = 0;
+        return res;
+    }
+}
@@ -0,0 +1,143 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 键为long、值为int的开放寻址哈希表，键值都不装箱，用于计数
+ * 探测和删除方式同LongHashMap；get不存在的键返回0
+ * 非线程安全
+ */
+public class LongIntHashMap {
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongIntHashMap() {
+        this(8);
+    }
+
+    public LongIntHashMap(int expected) {
+        allocate(LongHashMap.capacityFor(expected));
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap + 1];
+        values = new int[cap + 1];
+        mask = cap - 1;
+    }
+
+    private int indexOf(long key) {
+        if(key == 0) {
+            return hasZero ? mask + 1 : -1;
+        }
+        int i = LongHashMap.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? 0 : values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public void put(long key, int value) {
+        int i = slotFor(key);
+        values[i] = value;
+    }
+
+    // 将键对应的值加上delta，键不存在时视为0，返回新值
+    public int addTo(long key, int delta) {
+        int i = slotFor(key);
+        return values[i] += delta;
+    }
+
+    // 键所在的槽，不存在时插入值为0的新键
+    private int slotFor(long key) {
+        if(key == 0) {
+            if(!hasZero) {
+                hasZero = true;
+                values[mask + 1] = 0;
+                size ++;
+            }
+            return mask + 1;
+        }
+        int i = LongHashMap.hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        if(size + 1 > (mask + 1) - ((mask + 1) >>> 2)) {
+            rehash((mask + 1) << 1);
+            return slotFor(key);
+        }
+        keys[i] = key;
+        values[i] = 0;
+        size ++;
+        return i;
+    }
+
+    public void remove(long key) {
+        int i = indexOf(key);
+        if(i < 0) return;
+        size --;
+        if(key == 0) {
+            hasZero = false;
+            return;
+        }
+        int free = i;
+        while(true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if(k == 0) break;
+            int home = LongHashMap.hash(k) & mask;
+            boolean stay = free <= i ? (free < home && home <= i) : (free < home || home <= i);
+            if(stay) continue;
+            keys[free] = k;
+            values[free] = values[i];
+            free = i;
+        }
+        keys[free] = 0;
+    }
+
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int oldCap = mask + 1;
+        allocate(cap);
+        for(int j = 0; j < oldCap; j ++) {
+            long k = oldKeys[j];
+            if(k == 0) continue;
+            int i = LongHashMap.hash(k) & mask;
+            while(keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+        values[mask + 1] = oldValues[oldCap];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+}
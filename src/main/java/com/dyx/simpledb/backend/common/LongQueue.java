@@ -0,0 +1,71 @@
+package com.dyx.simpledb.backend.common;
+
+/**
+ * long的FIFO环形队列，元素不装箱，容量按2的幂增长
+ * 非线程安全
+ */
+public class LongQueue {
+    private long[] elems = new long[4];
+    private int head;
+    private int size;
+
+    public void add(long v) {
+        ensureCapacity();
+        elems[(head + size) & (elems.length - 1)] = v;
+        size ++;
+    }
+
+    // 插到队首，用于锁升级
+    public void addFirst(long v) {
+        ensureCapacity();
+        head = (head - 1) & (elems.length - 1);
+        elems[head] = v;
+        size ++;
+    }
+
+    private void ensureCapacity() {
+        if(size == elems.length) {
+            long[] grown = new long[size << 1];
+            for(int i = 0; i < size; i ++) {
+                grown[i] = elems[(head + i) & (elems.length - 1)];
+            }
+            elems = grown;
+            head = 0;
+        }
+    }
+
+    public long peek() {
+        return elems[head];
+    }
+
+    public long get(int i) {
+        return elems[(head + i) & (elems.length - 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long poll() {
+        long v = elems[head];
+        head = (head + 1) & (elems.length - 1);
+        size --;
+        return v;
+    }
+
+    public void remove(long v) {
+        for(int i = 0; i < size; i ++) {
+            if(elems[(head + i) & (elems.length - 1)] == v) {
+                for(int j = i; j < size - 1; j ++) {
+                    elems[(head + j) & (elems.length - 1)] = elems[(head + j + 1) & (elems.length - 1)];
+                }
+                size --;
+                return;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,82 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将-mem指定的内存按比例划分给各级缓存，并汇报各缓存的占用
+ * DataItem缓存同时缓存表记录和B+树节点，索引节点占用计入DataItem
+ * 未被引用的Entry持有DataItem的引用，未被引用的DataItem持有页面的引用，
+ * 页面缓存满时由reclaim驱逐上层缓存中未被引用的资源，让出被它们占住的页面
+ */
+public class MemoryManager {
+
+    public enum Pool {
+        PAGE(75),
+        DATA_ITEM(15),
+        ENTRY(10);
+
+        final int percent;
+
+        Pool(int percent) {
+            this.percent = percent;
+        }
+    }
+
+    public static final String[] REPORT_COLUMNS = {"pool", "budget", "used", "cached", "idle", "hits", "misses", "evictions"};
+
+    private final long total;
+    private final Map<Pool, AbstractCache<?>> caches;
+
+    public MemoryManager(long total) {
+        this.total = total;
+        this.caches = new EnumMap<>(Pool.class);
+    }
+
+    public long budget(Pool pool) {
+        return total / 100 * pool.percent;
+    }
+
+    public void register(Pool pool, AbstractCache<?> cache) {
+        synchronized (caches) {
+            caches.put(pool, cache);
+        }
+        cache.setBudget(budget(pool), this);
+    }
+
+    // 驱逐requester以外各缓存中未被引用的资源，从上层开始，返回是否驱逐了资源
+    // 调用者不能持有任何缓存的锁
+    boolean reclaim(AbstractCache<?> requester) {
+        List<AbstractCache<?>> others = new ArrayList<>();
+        synchronized (caches) {
+            for(Pool pool : new Pool[]{Pool.ENTRY, Pool.DATA_ITEM, Pool.PAGE}) {
+                AbstractCache<?> cache = caches.get(pool);
+                if(cache != null && cache != requester) {
+                    others.add(cache);
+                }
+            }
+        }
+        int n = 0;
+        for(AbstractCache<?> cache : others) {
+            n += cache.evictIdle();
+        }
+        return n > 0;
+    }
+
+    // 每个缓存一行，列见REPORT_COLUMNS
+    public List<Map<String, Object>> report() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        synchronized (caches) {
+            for(Map.Entry<Pool, AbstractCache<?>> e : caches.entrySet()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("pool", e.getKey().name().toLowerCase());
+                e.getValue().fillStats(row);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
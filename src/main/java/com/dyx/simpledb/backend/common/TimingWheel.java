@@ -0,0 +1,182 @@
+package com.dyx.simpledb.backend.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分层时间轮，供锁等待超时、语句超时、空闲事务超时共用
+ * 每层WHEEL_SIZE个槽，第0层每槽一个tick，第i层每槽覆盖第i-1层一整圈
+ * 槽内定时任务以双向链表组织，添加和取消都是O(1)；第0层转完一圈时，将上层对应槽中的任务重新分配到下层
+ * 到期任务在时间轮线程中执行，不能阻塞
+ */
+public class TimingWheel {
+
+    public static final long TICK_MS = 10;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final TimingWheel SHARED = new TimingWheel("timing-wheel");
+
+    public static TimingWheel shared() {
+        return SHARED;
+    }
+
+    // 定时任务句柄
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout prev, next;
+        private Timeout[] bucket;   // 所在槽的头节点数组，null表示不在时间轮中
+        private int slot;
+        private final TimingWheel wheel;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // 取消尚未执行的任务，已执行或已取消时不做任何事
+        public void cancel() {
+            wheel.lock.lock();
+            try {
+                wheel.unlink(this);
+            } finally {
+                wheel.lock.unlock();
+            }
+        }
+    }
+
+    private final Timeout[][] wheels;
+    private final Lock lock;
+    private final long startNanos;
+    private long currentTick;
+    private final String name;
+    private Thread worker;
+
+    public TimingWheel(String name) {
+        this.name = name;
+        wheels = new Timeout[LEVELS][WHEEL_SIZE];
+        lock = new ReentrantLock();
+        startNanos = System.nanoTime();
+    }
+
+    // delayMs毫秒后在时间轮线程中执行task
+    public Timeout schedule(long delayMs, Runnable task) {
+        long ticks = Math.max(1, (delayMs + TICK_MS - 1) / TICK_MS);
+        lock.lock();
+        try {
+            startWorker();
+            Timeout t = new Timeout(this, task, currentTick + ticks);
+            place(t);
+            return t;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 按剩余tick数选择层和槽，超出最高层范围的放在最高层最远的槽，转到时再重新分配
+    private void place(Timeout t) {
+        long delta = t.deadlineTick - currentTick;
+        int level = 0;
+        while(level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level ++;
+        }
+        long slotTick = t.deadlineTick;
+        if(level == LEVELS - 1 && delta >= (1L << (WHEEL_BITS * LEVELS))) {
+            slotTick = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        }
+        int slot = (int)((slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Timeout[] bucket = wheels[level];
+        t.bucket = bucket;
+        t.slot = slot;
+        t.prev = null;
+        t.next = bucket[slot];
+        if(t.next != null) {
+            t.next.prev = t;
+        }
+        bucket[slot] = t;
+    }
+
+    private void unlink(Timeout t) {
+        if(t.bucket == null) return;
+        if(t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            t.bucket[t.slot] = t.next;
+        }
+        if(t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = t.next = null;
+        t.bucket = null;
+    }
+
+    // 取出一个槽中的全部任务
+    private Timeout drain(int level, int slot) {
+        Timeout head = wheels[level][slot];
+        wheels[level][slot] = null;
+        for(Timeout t = head; t != null; t = t.next) {
+            t.bucket = null;
+        }
+        return head;
+    }
+
+    // 前进一个tick，返回到期的任务链表
+    private Timeout advance() {
+        currentTick ++;
+        // 低 WHEEL_BITS*L 位全为0时，第L层转到了新的槽，先下放高层
+        int top = 0;
+        while(top < LEVELS - 1 && (currentTick & ((1L << (WHEEL_BITS * (top + 1))) - 1)) == 0) {
+            top ++;
+        }
+        for(int level = top; level >= 1; level --) {
+            int slot = (int)((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Timeout t = drain(level, slot);
+            while(t != null) {
+                Timeout next = t.next;
+                place(t);
+                t = next;
+            }
+        }
+        return drain(0, (int)(currentTick & WHEEL_MASK));
+    }
+
+    private void startWorker() {
+        if(worker != null) return;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        while(true) {
+            long targetTick = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / TICK_MS;
+            while(true) {
+                Timeout expired;
+                lock.lock();
+                try {
+                    if(currentTick >= targetTick) break;
+                    expired = advance();
+                } finally {
+                    lock.unlock();
+                }
+                while(expired != null) {
+                    Timeout next = expired.next;
+                    expired.prev = expired.next = null;
+                    try {
+                        expired.task.run();
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                    expired = next;
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TICK_MS));
+        }
+    }
+}
@@ -1,30 +1,43 @@
 package com.dyx.simpledb.backend.dm;
 
+import com.dyx.simpledb.backend.common.MemoryManager;
 import com.dyx.simpledb.backend.dm.dataItem.DataItem;
 import com.dyx.simpledb.backend.dm.logger.Logger;
 import com.dyx.simpledb.backend.dm.page.PageOne;
 import com.dyx.simpledb.backend.dm.pageCache.PageCache;
+import com.dyx.simpledb.backend.dm.pageCache.PageCacheImpl;
 import com.dyx.simpledb.backend.tm.TransactionManager;
 
 public interface DataManager {
     DataItem read(long uid) throws Exception;
+    DataItem[] readBatch(long[] uids) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    long insert(long xid, byte[] data, long nearUid) throws Exception;
     void physicalDelete(Long uid) throws Exception;
     void close();
+    MemoryManager getMemoryManager();
 
     public static DataManager create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
+        MemoryManager mm = new MemoryManager(mem);
+        PageCacheImpl pc = PageCache.create(path, mm.budget(MemoryManager.Pool.PAGE));
+        mm.register(MemoryManager.Pool.PAGE, pc);
         Logger lg = Logger.create(path);
+        pc.setLogger(lg);
+        tm.setLogFlusher(lg::flush);
 
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, mm);
         dm.initPageOne();
         return dm;
     }
 
     public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
+        MemoryManager mm = new MemoryManager(mem);
+        PageCacheImpl pc = PageCache.open(path, mm.budget(MemoryManager.Pool.PAGE));
+        mm.register(MemoryManager.Pool.PAGE, pc);
         Logger lg = Logger.open(path);
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        pc.setLogger(lg);
+        tm.setLogFlusher(lg::flush);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm, mm);
         if(!dm.loadCheckPageOne()) {
             Recover.recover(tm, lg, pc);
         }
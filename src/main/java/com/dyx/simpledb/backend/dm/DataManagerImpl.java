@@ -1,6 +1,8 @@
 package com.dyx.simpledb.backend.dm;
 
 import com.dyx.simpledb.backend.common.AbstractCache;
+import com.dyx.simpledb.backend.common.MemoryManager;
+import com.dyx.simpledb.backend.common.SubArray;
 import com.dyx.simpledb.backend.dm.dataItem.DataItem;
 import com.dyx.simpledb.backend.dm.dataItem.DataItemImpl;
 import com.dyx.simpledb.backend.dm.logger.Logger;
@@ -20,18 +22,29 @@ import java.util.Arrays;
 
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
 
+    // DataItemImpl、SubArray及缓存项自身的大致开销，另加一份oldRaw
+    private static final int ITEM_OVERHEAD = 128;
+
     TransactionManager tm;
     PageCache pc;
     Logger logger;
     PageIndex pIndex;
     Page pageOne;
+    MemoryManager memory;
 
-    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
+    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm, MemoryManager memory) {
         super(0);
         this.pc = pc;
         this.logger = logger;
         this.tm = tm;
         this.pIndex = new PageIndex();
+        this.memory = memory;
+        memory.register(MemoryManager.Pool.DATA_ITEM, this);
+    }
+
+    @Override
+    public MemoryManager getMemoryManager() {
+        return memory;
     }
 
     @Override
@@ -44,15 +57,39 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return di;
     }
 
+    // 读取一批数据项，调用者将同一页的uid放在一起时，该页由第一个数据项取出并持有，其余的直接命中页面缓存
+    // 结果与uids的顺序一致，无效的数据项为null，其余由调用者逐个释放
+    @Override
+    public DataItem[] readBatch(long[] uids) throws Exception {
+        DataItem[] items = new DataItem[uids.length];
+        try {
+            for(int i = 0; i < uids.length; i ++) {
+                items[i] = read(uids[i]);
+            }
+        } catch (Exception e) {
+            for(DataItem di : items) {
+                if(di != null) di.release();
+            }
+            throw e;
+        }
+        return items;
+    }
+
     @Override
     public long insert(long xid, byte[] data) throws Exception {
+        return insert(xid, data, 0);
+    }
+
+    // nearUid不为0时优先插入到它所在的页，该页空间不足或正被使用时与普通插入相同
+    @Override
+    public long insert(long xid, byte[] data, long nearUid) throws Exception {
         byte[] raw = DataItem.wrapDataItemRaw(data);
         if(raw.length > PageX.MAX_FREE_SPACE) {
             throw Error.DataTooLargeException;
         }
 
-        PageInfo pi = null;
-        for(int i = 0; i < 5; i ++) {
+        PageInfo pi = nearUid == 0 ? null : pIndex.select((int)(nearUid >>> 32), raw.length);
+        for(int i = 0; i < 5 && pi == null; i ++) {
             pi = pIndex.select(raw.length);
             if (pi != null) {
                 break;
@@ -70,9 +107,10 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         try {
             pg = pc.getPage(pi.pgno);
             byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
+            long lsn = logger.log(log);
 
             short offset = PageX.insert(pg, raw);
+            PageX.setPageLSN(pg, lsn);
 
             pg.release();
             return Types.addressToUid(pi.pgno, offset);
@@ -90,11 +128,14 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     @Override
     public void close() {
         super.close();
-        logger.close();
+        // 关闭日志前持久化尚未落盘的事务状态
+        tm.flushStatus();
 
         PageOne.setVcClose(pageOne);
         pageOne.release();
+        // 页面缓存中保留的脏页写回时需要先刷日志，日志最后关闭
         pc.close();
+        logger.close();
     }
 
     @Override
@@ -104,6 +145,9 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         uid >>>= 32;
         int pgno = (int) (uid & ((1L << 32) - 1));
 
+        // 缓存中未被引用的数据项不再有效
+        super.evict((long) pgno << 32 | offset);
+
         // 获取目标页
         Page pg = pc.getPage(pgno);
         try {
@@ -111,15 +155,13 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
             byte[] data = pg.getData();
 
             // 计算数据项的大小
-            short size = Parser.parseShort(Arrays.copyOfRange(data, offset + DataItemImpl.OF_SIZE, offset + DataItemImpl.OF_DATA));
+            short size = Parser.getShort(data, offset + DataItemImpl.OF_SIZE);
             int dataItemLength = DataItemImpl.OF_DATA + size;
 
             // 清除数据项的内容（将数据项所在区域的字节清零）
+            // 页内空间只从FSO之后分配，清零不会增加可用空间；该页已在pIndex中，不能重复登记，否则会选中过期的空闲空间
             Arrays.fill(data, offset, offset + dataItemLength, (byte) 0);
 
-            // 更新该页的可用空间信息
-            pIndex.add(pgno, PageX.getFreeSpace(pg));
-
         } finally {
             // 释放页
             pg.release();
@@ -129,7 +171,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     // 为xid生成update日志
     public void logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        long lsn = logger.log(log);
+        PageX.setPageLSN(di.page(), lsn);
     }
 
     public void releaseDataItem(DataItem di) {
@@ -150,6 +193,12 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         di.page().release();
     }
 
+    @Override
+    protected long sizeOf(DataItem di) {
+        SubArray raw = di.getRaw();
+        return ITEM_OVERHEAD + raw.end - raw.start;
+    }
+
     // 在创建文件时初始化PageOne
     void initPageOne() {
         int pgno = pc.newPage(PageOne.InitRaw());
@@ -2,15 +2,16 @@ package com.dyx.simpledb.backend.dm;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import com.google.common.primitives.Bytes;
 
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
 import com.dyx.simpledb.backend.common.SubArray;
 import com.dyx.simpledb.backend.dm.dataItem.DataItem;
+import com.dyx.simpledb.backend.dm.logger.LogScanner;
 import com.dyx.simpledb.backend.dm.logger.Logger;
 import com.dyx.simpledb.backend.dm.page.Page;
 import com.dyx.simpledb.backend.dm.page.PageX;
@@ -37,165 +38,226 @@ public class Recover {
     static class UpdateLogInfo {
         long xid;
         int pgno;
+        short offset;
+        List<UpdateRange> ranges;
+    }
+
+    // DataItem中一段被修改的字节，offset为相对DataItem起始的偏移
+    static class UpdateRange {
         short offset;
         byte[] oldRaw;
         byte[] newRaw;
     }
 
-    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
-        System.out.println("Recovering...");
+    /**
+     * 恢复索引，由一次顺序扫描日志建立
+     * xidActive 缓存每个事务的状态，每个XID只查询一次TM
+     * logCache  按日志顺序记录活跃事务的日志在arena中的偏移，供undo倒序回放
+     * losers    日志中出现的所有活跃事务
+     * arena     紧凑存放活跃事务的日志，格式为 [Size] [Log]
+     */
+    static class LogIndex {
+        int maxPgno;
+        LongHashMap<Boolean> xidActive = new LongHashMap<>();
+        LongArrayList logCache = new LongArrayList();
+        LongHashSet losers = new LongHashSet();
+        byte[] arena = new byte[1 << 12];
+        int arenaSize;
 
-        lg.rewind();
-        int maxPgno = 0;
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            int pgno;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
+        boolean isActive(TransactionManager tm, long xid) {
+            Boolean active = xidActive.get(xid);
+            if(active == null) {
+                active = tm.isActive(xid);
+                xidActive.put(xid, active);
             }
-            if(pgno > maxPgno) {
-                maxPgno = pgno;
+            return active;
+        }
+
+        void addLog(long xid, SubArray log) {
+            int length = log.end - log.start;
+            int need = arenaSize + 4 + length;
+            if(need > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(need, arena.length << 1));
             }
+            Parser.putInt(arena, arenaSize, length);
+            System.arraycopy(log.raw, log.start, arena, arenaSize+4, length);
+            logCache.add(arenaSize);
+            losers.add(xid);
+            arenaSize = need;
+        }
+
+        SubArray getLog(int offset) {
+            int size = Parser.getInt(arena, offset);
+            return new SubArray(arena, offset+4, offset+4+size);
         }
+    }
+
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+        System.out.println("Recovering...");
+
+        LogIndex index = redoTranscations(tm, lg, pc);
+        System.out.println("Redo Transactions Over.");
+
+        int maxPgno = index.maxPgno;
         if(maxPgno == 0) {
             maxPgno = 1;
         }
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
 
-        redoTranscations(tm, lg, pc);
-        System.out.println("Redo Transactions Over.");
-
-        undoTranscations(tm, lg, pc);
+        undoTranscations(tm, index, pc);
         System.out.println("Undo Transactions Over.");
 
         System.out.println("Recovery Over.");
     }
 
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
+    // 顺序扫描一遍日志：按日志顺序重做所有日志，同时建立恢复索引
+    // 活跃事务的修改也会被重做，随后由undo倒序撤销，结果与跳过它们相同
+    // 日志LSN不大于页面PageLSN时，说明修改已经落盘，跳过该日志
+    private static LogIndex redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
+        LogIndex index = new LogIndex();
+        LogScanner scanner = lg.scanner();
         while(true) {
-            byte[] log = lg.next();
+            SubArray log = scanner.next();
             if(log == null) break;
+            long lsn = scanner.lsn();
+            long xid;
+            int pgno;
             if(isInsertLog(log)) {
                 InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(!tm.isActive(xid)) {
-                    doInsertLog(pc, log, REDO);
-                }
+                xid = li.xid;
+                pgno = li.pgno;
+                doInsertLog(pc, li, REDO, lsn);
             } else {
                 UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
+                xid = xi.xid;
+                pgno = xi.pgno;
+                doUpdateLog(pc, xi, REDO, lsn);
+            }
+            if(pgno > index.maxPgno) {
+                index.maxPgno = pgno;
+            }
+            if(index.isActive(tm, xid)) {
+                index.addLog(xid, log);
             }
         }
+        return index;
     }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
+    private static void undoTranscations(TransactionManager tm, LogIndex index, PageCache pc) {
+        // 对所有active log按全局日志顺序倒序undo
+        // 回滚状态可能尚未落盘，多个活跃事务可能先后修改过同一数据，必须整体倒序
+        LongArrayList offsets = index.logCache;
+        for (int i = offsets.size()-1; i >= 0; i --) {
+            SubArray log = index.getLog((int) offsets.get(i));
             if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
+                doInsertLog(pc, parseInsertLog(log), UNDO, 0);
             } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
+                doUpdateLog(pc, parseUpdateLog(log), UNDO, 0);
             }
         }
-
-        // 对所有active log进行倒序undo
-        for(Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size()-1; i >= 0; i --) {
-                byte[] log = logs.get(i);
-                if(isInsertLog(log)) {
-                    doInsertLog(pc, log, UNDO);
-                } else {
-                    doUpdateLog(pc, log, UNDO);
-                }
-            }
-            tm.abort(entry.getKey());
+        for(long xid : index.losers.toArray()) {
+            tm.abort(xid);
         }
+        // 页面缓存会保留未被引用的页面，先将回滚结果写回磁盘
+        pc.evictIdle();
+        // 回滚结果已写回页面，持久化回滚状态，避免再次崩溃后重复回滚
+        tm.flushStatus();
     }
 
-    private static boolean isInsertLog(byte[] log) {
-        return log[0] == LOG_TYPE_INSERT;
+    private static boolean isInsertLog(SubArray log) {
+        return log.raw[log.start+OF_TYPE] == LOG_TYPE_INSERT;
     }
 
-    // [LogType] [XID] [UID] [OldRaw] [NewRaw]
+    // [LogType] [XID] [UID] [RangeCount] [Range1] [Range2] ... [RangeN]
+    // Range: [Offset] [Length] [OldRaw] [NewRaw]
+    // 只记录DataItem中发生变化的字节区间，Offset为相对DataItem起始的偏移
     private static final int OF_TYPE = 0;
     private static final int OF_XID = OF_TYPE+1;
     private static final int OF_UPDATE_UID = OF_XID+8;
-    private static final int OF_UPDATE_RAW = OF_UPDATE_UID+8;
+    private static final int OF_UPDATE_COUNT = OF_UPDATE_UID+8;
+    private static final int OF_UPDATE_RANGES = OF_UPDATE_COUNT+2;
+
+    // 两段修改之间相同的字节数不超过该值时合并为一段，避免为很短的间隔多写一个区间头
+    private static final int RANGE_MERGE_GAP = 4;
 
     public static byte[] updateLog(long xid, DataItem di) {
+        byte[] oldRaw = di.getOldRaw();
+        SubArray raw = di.getRaw();
+
+        List<byte[]> ranges = new ArrayList<>();
+        int i = 0;
+        while(i < oldRaw.length) {
+            if(oldRaw[i] == raw.raw[raw.start+i]) {
+                i ++;
+                continue;
+            }
+            int begin = i, end = i + 1, same = 0;
+            for(int j = i + 1; j < oldRaw.length && same <= RANGE_MERGE_GAP; j ++) {
+                if(oldRaw[j] == raw.raw[raw.start+j]) {
+                    same ++;
+                } else {
+                    end = j + 1;
+                    same = 0;
+                }
+            }
+            byte[] offsetRaw = Parser.short2Byte((short)begin);
+            byte[] lengthRaw = Parser.short2Byte((short)(end-begin));
+            byte[] oldBytes = Arrays.copyOfRange(oldRaw, begin, end);
+            byte[] newBytes = Arrays.copyOfRange(raw.raw, raw.start+begin, raw.start+end);
+            ranges.add(Bytes.concat(offsetRaw, lengthRaw, oldBytes, newBytes));
+            i = end;
+        }
+
         byte[] logType = {LOG_TYPE_UPDATE};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] uidRaw = Parser.long2Byte(di.getUid());
-        byte[] oldRaw = di.getOldRaw();
-        SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        byte[] countRaw = Parser.short2Byte((short)ranges.size());
+        return Bytes.concat(Bytes.concat(logType, xidRaw, uidRaw, countRaw), Bytes.concat(ranges.toArray(new byte[0][])));
     }
 
-    private static UpdateLogInfo parseUpdateLog(byte[] log) {
+    private static UpdateLogInfo parseUpdateLog(SubArray log) {
+        byte[] raw = log.raw;
+        int start = log.start;
         UpdateLogInfo li = new UpdateLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
+        li.xid = Parser.getLong(raw, start+OF_XID);
+        long uid = Parser.getLong(raw, start+OF_UPDATE_UID);
         li.offset = (short)(uid & ((1L << 16) - 1));
         uid >>>= 32;
         li.pgno = (int)(uid & ((1L << 32) - 1));
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        li.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW+length);
-        li.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW+length, OF_UPDATE_RAW+length*2);
+        short count = Parser.getShort(raw, start+OF_UPDATE_COUNT);
+        li.ranges = new ArrayList<>(count);
+        int pos = start+OF_UPDATE_RANGES;
+        for(int i = 0; i < count; i ++) {
+            UpdateRange r = new UpdateRange();
+            r.offset = Parser.getShort(raw, pos);
+            short length = Parser.getShort(raw, pos+2);
+            r.oldRaw = Arrays.copyOfRange(raw, pos+4, pos+4+length);
+            r.newRaw = Arrays.copyOfRange(raw, pos+4+length, pos+4+length*2);
+            li.ranges.add(r);
+            pos += 4 + length*2;
+        }
         return li;
     }
 
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
-        int pgno;
-        short offset;
-        byte[] raw;
-        if(flag == REDO) {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.newRaw;
-        } else {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.oldRaw;
-        }
+    private static void doUpdateLog(PageCache pc, UpdateLogInfo xi, int flag, long lsn) {
         Page pg = null;
         try {
-            pg = pc.getPage(pgno);
+            pg = pc.getPage(xi.pgno);
         } catch (Exception e) {
             Panic.panic(e);
         }
         try {
-            PageX.recoverUpdate(pg, raw, offset);
+            if(flag == REDO && lsn <= PageX.getPageLSN(pg)) {
+                return;
+            }
+            for(UpdateRange r : xi.ranges) {
+                byte[] raw = flag == REDO ? r.newRaw : r.oldRaw;
+                PageX.recoverUpdate(pg, raw, (short)(xi.offset+r.offset));
+            }
+            if(flag == REDO) {
+                PageX.setPageLSN(pg, lsn);
+            }
         } finally {
             pg.release();
         }
@@ -214,17 +276,18 @@ public class Recover {
         return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
     }
 
-    private static InsertLogInfo parseInsertLog(byte[] log) {
+    private static InsertLogInfo parseInsertLog(SubArray log) {
+        byte[] raw = log.raw;
+        int start = log.start;
         InsertLogInfo li = new InsertLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
+        li.xid = Parser.getLong(raw, start+OF_XID);
+        li.pgno = Parser.getInt(raw, start+OF_INSERT_PGNO);
+        li.offset = Parser.getShort(raw, start+OF_INSERT_OFFSET);
+        li.raw = Arrays.copyOfRange(raw, start+OF_INSERT_RAW, log.end);
         return li;
     }
 
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
-        InsertLogInfo li = parseInsertLog(log);
+    private static void doInsertLog(PageCache pc, InsertLogInfo li, int flag, long lsn) {
         Page pg = null;
         try {
             pg = pc.getPage(li.pgno);
@@ -232,10 +295,16 @@ public class Recover {
             Panic.panic(e);
         }
         try {
+            if(flag == REDO && lsn <= PageX.getPageLSN(pg)) {
+                return;
+            }
             if(flag == UNDO) {
                 DataItem.setDataItemRawInvalid(li.raw);
             }
             PageX.recoverInsert(pg, li.raw, li.offset);
+            if(flag == REDO) {
+                PageX.setPageLSN(pg, lsn);
+            }
         } finally {
             pg.release();
         }
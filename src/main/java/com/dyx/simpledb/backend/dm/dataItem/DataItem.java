@@ -1,7 +1,5 @@
 package com.dyx.simpledb.backend.dm.dataItem;
 
-import java.util.Arrays;
-
 import com.google.common.primitives.Bytes;
 
 import com.dyx.simpledb.backend.common.SubArray;
@@ -22,9 +20,13 @@ public interface DataItem {
     void unlock();
     void rLock();
     void rUnLock();
+    // 乐观读：读取前取得stamp，读取后validate成功才说明期间没有写入，否则需加读锁重读
+    long tryOptimisticRead();
+    boolean validate(long stamp);
 
     Page page();
     long getUid();
+    boolean isValid();
     byte[] getOldRaw();
     SubArray getRaw();
 
@@ -37,7 +39,7 @@ public interface DataItem {
     // 从页面的offset处解析处dataitem
     public static DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
         byte[] raw = pg.getData();
-        short size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
+        short size = Parser.getShort(raw, offset+DataItemImpl.OF_SIZE);
         short length = (short)(size + DataItemImpl.OF_DATA);
         long uid = Types.addressToUid(pg.getPageNumber(), offset);
         return new DataItemImpl(new SubArray(raw, offset, offset+length), new byte[length], pg, uid, dm);
@@ -46,4 +48,8 @@ public interface DataItem {
     public static void setDataItemRawInvalid(byte[] raw) {
         raw[DataItemImpl.OF_VALID] = (byte)1;
     }
+
+    public static void setDataItemRawInvalid(SubArray raw) {
+        raw.raw[raw.start+DataItemImpl.OF_VALID] = (byte)1;
+    }
 }
@@ -1,9 +1,5 @@
 package com.dyx.simpledb.backend.dm.dataItem;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import com.dyx.simpledb.backend.common.SubArray;
 import com.dyx.simpledb.backend.dm.DataManagerImpl;
 import com.dyx.simpledb.backend.dm.page.Page;
@@ -22,8 +18,7 @@ public class DataItemImpl implements DataItem {
 
     private SubArray raw;
     private byte[] oldRaw;
-    private Lock rLock;
-    private Lock wLock;
+    private Latch latch;    // 按uid共享的条带锁
     private DataManagerImpl dm;
     private long uid;
     private Page pg;
@@ -31,9 +26,7 @@ public class DataItemImpl implements DataItem {
     public DataItemImpl(SubArray raw, byte[] oldRaw, Page pg, long uid, DataManagerImpl dm) {
         this.raw = raw;
         this.oldRaw = oldRaw;
-        ReadWriteLock lock = new ReentrantReadWriteLock();
-        rLock = lock.readLock();
-        wLock = lock.writeLock();
+        this.latch = Latch.of(uid);
         this.dm = dm;
         this.uid = uid;
         this.pg = pg;
@@ -50,7 +43,7 @@ public class DataItemImpl implements DataItem {
 
     @Override
     public void before() {
-        wLock.lock();
+        latch.lock();
         pg.setDirty(true);
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
@@ -58,13 +51,13 @@ public class DataItemImpl implements DataItem {
     @Override
     public void unBefore() {
         System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
-        wLock.unlock();
+        latch.unlock();
     }
 
     @Override
     public void after(long xid) {
         dm.logDataItem(xid, this);
-        wLock.unlock();
+        latch.unlock();
     }
 
     @Override
@@ -74,22 +67,32 @@ public class DataItemImpl implements DataItem {
 
     @Override
     public void lock() {
-        wLock.lock();
+        latch.lock();
     }
 
     @Override
     public void unlock() {
-        wLock.unlock();
+        latch.unlock();
     }
 
     @Override
     public void rLock() {
-        rLock.lock();
+        latch.rLock();
     }
 
     @Override
     public void rUnLock() {
-        rLock.unlock();
+        latch.rUnLock();
+    }
+
+    @Override
+    public long tryOptimisticRead() {
+        return latch.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return latch.validate(stamp);
     }
 
     @Override
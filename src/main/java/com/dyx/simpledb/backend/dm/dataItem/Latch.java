@@ -0,0 +1,76 @@
+package com.dyx.simpledb.backend.dm.dataItem;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * DataItem的条带化读写锁，按uid映射到固定数量的锁上，不再为每个缓存的DataItem分配锁
+ * 读操作可先尝试StampedLock的乐观读，失败时再加读锁；写锁可被持有它的线程重入，其间的读锁直接通过
+ * 不同的DataItem可能映射到同一把锁，持有一个DataItem的锁时不能再获取其他DataItem的锁
+ */
+class Latch {
+
+    private static final int STRIPES = 1024;
+    private static final Latch[] LATCHES = new Latch[STRIPES];
+
+    static {
+        for(int i = 0; i < STRIPES; i ++) {
+            LATCHES[i] = new Latch();
+        }
+    }
+
+    // uid的高32位为页号，低位为页内偏移，混合后再取模
+    static Latch of(long uid) {
+        int h = Long.hashCode(uid);
+        h ^= (h >>> 16);
+        return LATCHES[h & (STRIPES - 1)];
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Thread owner;  // 持有写锁的线程
+    private int holds;              // 写锁及其间读锁的重入次数，只由owner访问
+    private long stamp;
+
+    void lock() {
+        Thread current = Thread.currentThread();
+        if(owner == current) {
+            holds ++;
+            return;
+        }
+        long s = lock.writeLock();
+        owner = current;
+        stamp = s;
+        holds = 1;
+    }
+
+    void unlock() {
+        if(-- holds == 0) {
+            owner = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void rLock() {
+        if(owner == Thread.currentThread()) {
+            holds ++;
+            return;
+        }
+        lock.readLock();
+    }
+
+    void rUnLock() {
+        if(owner == Thread.currentThread()) {
+            holds --;
+            return;
+        }
+        lock.tryUnlockRead();
+    }
+
+    // 写锁被持有时返回0
+    long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    boolean validate(long stamp) {
+        return stamp != 0 && lock.validate(stamp);
+    }
+}
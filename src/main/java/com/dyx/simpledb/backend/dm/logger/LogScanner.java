@@ -0,0 +1,99 @@
+package com.dyx.simpledb.backend.dm.logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.dyx.simpledb.backend.common.SubArray;
+import com.dyx.simpledb.backend.utils.Panic;
+import com.dyx.simpledb.backend.utils.Parser;
+
+/**
+ * 日志顺序扫描器
+ * 按块读取日志文件，日志以SubArray切片的形式返回，不再逐条读取和拷贝
+ * 返回的切片指向内部缓冲区，只在下一次调用next之前有效
+ * 使用带位置的读取，不影响日志文件的写入位置
+ */
+public class LogScanner {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private FileChannel fc;
+    private long limit;     // 扫描的上界，创建时的文件大小
+
+    private byte[] block;
+    private long blockStart;    // block[0]在文件中的偏移
+    private int blockLen;       // block中的有效字节数
+
+    private long position;  // 下一条日志的位置
+    private long lsn;       // 上一条返回的日志的LSN
+
+    LogScanner(FileChannel fc, long start, long limit) {
+        this.fc = fc;
+        this.position = start;
+        this.limit = limit;
+        this.block = new byte[BLOCK_SIZE];
+    }
+
+    // 读取下一条日志的Data部分，遇到日志尾或错误日志时返回null
+    public SubArray next() {
+        if(position + LoggerImpl.OF_DATA >= limit) {
+            return null;
+        }
+        if(!fill(LoggerImpl.OF_DATA)) {
+            return null;
+        }
+        int off = (int)(position - blockStart);
+        int size = Parser.getInt(block, off + LoggerImpl.OF_SIZE);
+        if(size < 0 || position + size + LoggerImpl.OF_DATA > limit) {
+            return null;
+        }
+        if(!fill(LoggerImpl.OF_DATA + size)) {
+            return null;
+        }
+
+        off = (int)(position - blockStart);
+        int dataStart = off + LoggerImpl.OF_DATA;
+        int checkSum1 = LoggerImpl.calChecksum(0, block, dataStart, dataStart + size);
+        int checkSum2 = Parser.getInt(block, off + LoggerImpl.OF_CHECKSUM);
+        if(checkSum1 != checkSum2) {
+            return null;
+        }
+        lsn = position;
+        position += LoggerImpl.OF_DATA + size;
+        return new SubArray(block, dataStart, dataStart + size);
+    }
+
+    // 上一条由next返回的日志的LSN
+    public long lsn() {
+        return lsn;
+    }
+
+    // 下一条日志的位置，扫描结束后即为合法日志的末尾
+    public long position() {
+        return position;
+    }
+
+    // 保证[position, position+length)在block中，返回false表示文件不足length字节
+    private boolean fill(int length) {
+        if(position >= blockStart && position + length <= blockStart + blockLen) {
+            return true;
+        }
+        if(block.length < length) {
+            block = new byte[length];
+        }
+        int toRead = (int)Math.min(block.length, limit - position);
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, toRead);
+        try {
+            while(buf.hasRemaining()) {
+                int n = fc.read(buf, position + buf.position());
+                if(n < 0) break;
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        blockStart = position;
+        blockLen = buf.position();
+        return length <= blockLen;
+    }
+}
@@ -12,9 +12,13 @@ import com.dyx.simpledb.backend.utils.Parser;
 import com.dyx.simpledb.common.Error;
 
 public interface Logger {
-    void log(byte[] data);
+    long log(byte[] data);
+    void flush(long lsn);
+    void flush();
     void truncate(long x) throws Exception;
     byte[] next();
+    long lastLsn();
+    LogScanner scanner();
     void rewind();
     void close();
 
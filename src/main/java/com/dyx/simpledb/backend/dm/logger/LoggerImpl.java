@@ -10,6 +10,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.primitives.Bytes;
 
+import com.dyx.simpledb.backend.common.SubArray;
 import com.dyx.simpledb.backend.utils.Panic;
 import com.dyx.simpledb.backend.utils.Parser;
 import com.dyx.simpledb.common.Error;
@@ -20,19 +21,23 @@ import com.dyx.simpledb.common.Error;
  * 日志文件标准格式为：
  * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
  * XChecksum 为后续所有日志计算的Checksum，int类型
+ * 日志写入时不立即刷盘，由flush成组持久化：先强制刷日志，再更新XChecksum并刷盘，
+ * 因此XChecksum总是对应某条日志的末尾，之后可能还跟着已写入但未被XChecksum覆盖的日志
  * 
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
  * Size 4字节int 标识Data长度
  * Checksum 4字节int
+ *
+ * 每条日志的LSN为其在日志文件中的起始偏移
  */
 public class LoggerImpl implements Logger {
 
     private static final int SEED = 13331;
 
-    private static final int OF_SIZE = 0;
-    private static final int OF_CHECKSUM = OF_SIZE + 4;
-    private static final int OF_DATA = OF_CHECKSUM + 4;
+    static final int OF_SIZE = 0;
+    static final int OF_CHECKSUM = OF_SIZE + 4;
+    static final int OF_DATA = OF_CHECKSUM + 4;
     
     public static final String LOG_SUFFIX = ".log";
 
@@ -40,14 +45,18 @@ public class LoggerImpl implements Logger {
     private FileChannel fc;
     private Lock lock;
 
-    private long position;  // 当前日志指针的位置
+    private LogScanner scanner;  // next使用的扫描器，rewind时重建
     private long fileSize;  // 初始化时记录，log操作不更新
     private int xChecksum;
 
+    private Lock flushLock;
+    private volatile long flushedLsn;  // 已持久化的日志末尾，LSN小于它的日志都已落盘
+
     LoggerImpl(RandomAccessFile raf, FileChannel fc) {
         this.file = raf;
         this.fc = fc;
         lock = new ReentrantLock();
+        flushLock = new ReentrantLock();
     }
 
     LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
@@ -55,6 +64,8 @@ public class LoggerImpl implements Logger {
         this.fc = fc;
         this.xChecksum = xChecksum;
         lock = new ReentrantLock();
+        flushLock = new ReentrantLock();
+        flushedLsn = 4;
     }
 
     void init() {
@@ -83,19 +94,24 @@ public class LoggerImpl implements Logger {
     }
 
     // 检查并移除bad tail
+    // XChecksum只需与某条日志末尾的累计Checksum吻合，其后完整的日志同样保留
     private void checkAndRemoveTail() {
-        rewind();
+        LogScanner sc = new LogScanner(fc, 4, fileSize);
 
         int xCheck = 0;
+        boolean matched = xCheck == xChecksum;
         while(true) {
-            byte[] log = internNext();
+            SubArray log = sc.next();
             if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
+            // 切片前紧挨着该日志的[Size] [Checksum]
+            xCheck = calChecksum(xCheck, log.raw, log.start - OF_DATA, log.end);
+            matched |= xCheck == xChecksum;
         }
-        if(xCheck != xChecksum) {
+        if(!matched) {
             Panic.panic(Error.BadLogFileException);
         }
 
+        long position = sc.position();
         try {
             truncate(position);
         } catch (Exception e) {
@@ -106,37 +122,92 @@ public class LoggerImpl implements Logger {
         } catch (IOException e) {
             Panic.panic(e);
         }
+        fileSize = position;
+        xChecksum = xCheck;
+        writeXChecksum(xCheck);
+        flushedLsn = position;
         rewind();
     }
 
     private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+        return calChecksum(xCheck, log, 0, log.length);
+    }
+
+    static int calChecksum(int xCheck, byte[] raw, int start, int end) {
+        for (int i = start; i < end; i ++) {
+            xCheck = xCheck * SEED + raw[i];
         }
         return xCheck;
     }
 
     @Override
-    public void log(byte[] data) {
+    public long log(byte[] data) {
         byte[] log = wrapLog(data);
         ByteBuffer buf = ByteBuffer.wrap(log);
+        long lsn = 0;
         lock.lock();
         try {
-            fc.position(fc.size());
+            lsn = fc.size();
+            fc.position(lsn);
             fc.write(buf);
+            xChecksum = calChecksum(xChecksum, log);
         } catch(IOException e) {
             Panic.panic(e);
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
+        return lsn;
     }
 
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    @Override
+    public void flush(long lsn) {
+        if(lsn < flushedLsn) {
+            return;
+        }
+        flushLock.lock();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
+            // 等待期间可能已被其他线程一并刷盘
+            if(lsn < flushedLsn) {
+                return;
+            }
+            long end = 0;
+            int checksum;
+            lock.lock();
+            try {
+                end = fc.size();
+                checksum = xChecksum;
+            } catch(IOException e) {
+                Panic.panic(e);
+                return;
+            } finally {
+                lock.unlock();
+            }
+            fc.force(false);
+            writeXChecksum(checksum);
+            flushedLsn = end;
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        long end = 0;
+        try {
+            end = fc.size();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        if(end > flushedLsn) {
+            flush(end - 1);
+        }
+    }
+
+    private void writeXChecksum(int checksum) {
+        try {
+            fc.write(ByteBuffer.wrap(Parser.int2Byte(checksum)), 0);
             fc.force(false);
         } catch(IOException e) {
             Panic.panic(e);
@@ -159,59 +230,45 @@ public class LoggerImpl implements Logger {
         }
     }
 
-    private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
-            return null;
-        }
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try {
-            fc.position(position);
-            fc.read(tmp);
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
-        int size = Parser.parseInt(tmp.array());
-        if(position + size + OF_DATA > fileSize) {
-            return null;
-        }
-
-        ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
-        try {
-            fc.position(position);
-            fc.read(buf);
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
-
-        byte[] log = buf.array();
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if(checkSum1 != checkSum2) {
-            return null;
-        }
-        position += log.length;
-        return log;
-    }
-
     @Override
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
+            if(scanner == null) {
+                rewind();
+            }
+            SubArray log = scanner.next();
             if(log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            return Arrays.copyOfRange(log.raw, log.start, log.end);
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public long lastLsn() {
+        return scanner == null ? 0 : scanner.lsn();
+    }
+
+    @Override
+    public LogScanner scanner() {
+        long size = 0;
+        try {
+            size = fc.size();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return new LogScanner(fc, 4, size);
+    }
+
     @Override
     public void rewind() {
-        position = 4;
+        scanner = scanner();
     }
 
     @Override
     public void close() {
+        flush();
         try {
             fc.close();
             file.close();
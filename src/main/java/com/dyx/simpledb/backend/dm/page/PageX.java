@@ -1,20 +1,20 @@
 package com.dyx.simpledb.backend.dm.page;
 
-import java.util.Arrays;
-
 import com.dyx.simpledb.backend.dm.pageCache.PageCache;
 import com.dyx.simpledb.backend.utils.Parser;
 
 /**
  * PageX管理普通页
  * 普通页结构
- * [FreeSpaceOffset] [Data]
+ * [FreeSpaceOffset] [PageLSN] [Data]
  * FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * PageLSN: 8字节 最后一条修改该页的日志的LSN
  */
 public class PageX {
     
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
+    private static final short OF_LSN = 2;
+    private static final short OF_DATA = OF_LSN + 8;
     public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
 
     public static byte[] initRaw() {
@@ -24,7 +24,7 @@ public class PageX {
     }
 
     private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+        Parser.putShort(raw, OF_FREE, ofData);
     }
 
     // 获取pg的FSO
@@ -33,7 +33,25 @@ public class PageX {
     }
 
     private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+        return Parser.getShort(raw, 0);
+    }
+
+    // 获取pg的PageLSN
+    public static long getPageLSN(Page pg) {
+        return Parser.getLong(pg.getData(), OF_LSN);
+    }
+
+    // 将pg的PageLSN推进到lsn，PageLSN只增不减
+    public static void setPageLSN(Page pg, long lsn) {
+        pg.lock();
+        try {
+            if(lsn > getPageLSN(pg)) {
+                pg.setDirty(true);
+                Parser.putLong(pg.getData(), OF_LSN, lsn);
+            }
+        } finally {
+            pg.unlock();
+        }
     }
 
     // 将raw插入pg中，返回插入位置
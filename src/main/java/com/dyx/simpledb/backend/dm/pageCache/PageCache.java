@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 
+import com.dyx.simpledb.backend.dm.logger.Logger;
 import com.dyx.simpledb.backend.dm.page.Page;
 import com.dyx.simpledb.backend.utils.Panic;
 import com.dyx.simpledb.common.Error;
@@ -21,6 +22,8 @@ public interface PageCache {
     void truncateByBgno(int maxPgno);
     int getPageNumber();
     void flushPage(Page pg);
+    int evictIdle();
+    void setLogger(Logger logger);
 
     public static PageCacheImpl create(String path, long memory) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
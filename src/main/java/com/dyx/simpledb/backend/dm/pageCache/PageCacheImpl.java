@@ -9,8 +9,10 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.dyx.simpledb.backend.common.AbstractCache;
+import com.dyx.simpledb.backend.dm.logger.Logger;
 import com.dyx.simpledb.backend.dm.page.Page;
 import com.dyx.simpledb.backend.dm.page.PageImpl;
+import com.dyx.simpledb.backend.dm.page.PageX;
 import com.dyx.simpledb.backend.utils.Panic;
 import com.dyx.simpledb.common.Error;
 
@@ -25,6 +27,8 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     private AtomicInteger pageNumbers;
 
+    private Logger logger;  // 写回页面前需要先将日志刷盘到PageLSN
+
     PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
         super(maxResource);
         if(maxResource < MEM_MIN_LIM) {
@@ -81,6 +85,11 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
     }
 
+    @Override
+    protected long sizeOf(Page pg) {
+        return PAGE_SIZE;
+    }
+
     public void release(Page page) {
         release((long)page.getPageNumber());
     }
@@ -89,10 +98,19 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         flush(pg);
     }
 
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
     private void flush(Page pg) {
         int pgno = pg.getPageNumber();
         long offset = pageOffset(pgno);
 
+        // WAL：修改该页的日志必须先于页面落盘，第一页为PageOne，不记录PageLSN
+        if(logger != null && pgno != 1) {
+            logger.flush(PageX.getPageLSN(pg));
+        }
+
         fileLock.lock();
         try {
             ByteBuffer buf = ByteBuffer.wrap(pg.getData());
@@ -34,6 +34,26 @@ public class PageIndex {
         }
     }
 
+    // 取出指定的页，该页剩余空间不足或已被取出时返回null
+    public PageInfo select(int pgno, int spaceSize) {
+        lock.lock();
+        try {
+            int number = spaceSize / THRESHOLD;
+            if(number < INTERVALS_NO) number ++;
+            for(; number <= INTERVALS_NO; number ++) {
+                List<PageInfo> list = lists[number];
+                for(int i = 0; i < list.size(); i ++) {
+                    if(list.get(i).pgno == pgno) {
+                        return list.remove(i);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public PageInfo select(int spaceSize) {
         lock.lock();
         try {
@@ -1,7 +1,6 @@
 package com.dyx.simpledb.backend.im;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -42,7 +41,7 @@ public class BPlusTree {
         bootLock.lock();
         try {
             SubArray sa = bootDataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start+8));
+            return Parser.getLong(sa.raw, sa.start);
         } finally {
             bootLock.unlock();
         }
@@ -55,23 +54,27 @@ public class BPlusTree {
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
             bootDataItem.before();
             SubArray diRaw = bootDataItem.data();
-            System.arraycopy(Parser.long2Byte(newRootUid), 0, diRaw.raw, diRaw.start, 8);
+            Parser.putLong(diRaw.raw, diRaw.start, newRootUid);
             bootDataItem.after(TransactionManagerImpl.SUPER_XID);
         } finally {
             bootLock.unlock();
         }
     }
 
+    // 每层只读取一次节点，内部节点中key超出本节点范围时沿兄弟节点右移
     private long searchLeaf(long nodeUid, long key) throws Exception {
-        Node node = Node.loadNode(this, nodeUid);
-        boolean isLeaf = node.isLeaf();
-        node.release();
-
-        if(isLeaf) {
-            return nodeUid;
-        } else {
-            long next = searchNext(nodeUid, key);
-            return searchLeaf(next, key);
+        SearchNextRes res = new SearchNextRes();
+        while(true) {
+            Node node = Node.loadNode(this, nodeUid);
+            try {
+                node.searchNext(key, res);
+            } finally {
+                node.release();
+            }
+            if(res.isLeaf) {
+                return nodeUid;
+            }
+            nodeUid = res.uid != 0 ? res.uid : res.siblingUid;
         }
     }
 
@@ -305,7 +308,7 @@ public class BPlusTree {
         try {
             bootDataItem.before();  // 加锁
             SubArray diRaw = bootDataItem.data();
-            System.arraycopy(Parser.long2Byte(onlyChildUid), 0, diRaw.raw, diRaw.start, 8);  // 更新根节点
+            Parser.putLong(diRaw.raw, diRaw.start, onlyChildUid);  // 更新根节点
             bootDataItem.after(TransactionManagerImpl.SUPER_XID);  // 提交修改
         } finally {
             bootLock.unlock();
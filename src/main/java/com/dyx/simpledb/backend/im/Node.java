@@ -1,7 +1,6 @@
 package com.dyx.simpledb.backend.im;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import com.dyx.simpledb.backend.common.SubArray;
@@ -41,39 +40,39 @@ public class Node {
     }
 
     static void setRawNoKeys(SubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short)noKeys), 0, raw.raw, raw.start+NO_KEYS_OFFSET, 2);
+        Parser.putShort(raw.raw, raw.start+NO_KEYS_OFFSET, (short)noKeys);
     }
 
     static int getRawNoKeys(SubArray raw) {
-        return (int)Parser.parseShort(Arrays.copyOfRange(raw.raw, raw.start+NO_KEYS_OFFSET, raw.start+NO_KEYS_OFFSET+2));
+        return (int)Parser.getShort(raw.raw, raw.start+NO_KEYS_OFFSET);
     }
 
     static void setRawSibling(SubArray raw, long sibling) {
-        System.arraycopy(Parser.long2Byte(sibling), 0, raw.raw, raw.start+SIBLING_OFFSET, 8);
+        Parser.putLong(raw.raw, raw.start+SIBLING_OFFSET, sibling);
     }
 
     static long getRawSibling(SubArray raw) {
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, raw.start+SIBLING_OFFSET, raw.start+SIBLING_OFFSET+8));
+        return Parser.getLong(raw.raw, raw.start+SIBLING_OFFSET);
     }
 
     static void setRawKthSon(SubArray raw, long uid, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.raw, offset, 8);
+        Parser.putLong(raw.raw, offset, uid);
     }
 
     static long getRawKthSon(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return Parser.getLong(raw.raw, offset);
     }
 
     static void setRawKthKey(SubArray raw, long key, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.raw, offset, 8);
+        Parser.putLong(raw.raw, offset, key);
     }
 
     static long getRawKthKey(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return Parser.getLong(raw.raw, offset);
     }
 
     static void copyRawFromKth(SubArray from, SubArray to, int kth) {
@@ -137,28 +136,37 @@ public class Node {
         }
     }
 
-    class SearchNextRes {
+    static class SearchNextRes {
+        boolean isLeaf;
         long uid;
         long siblingUid;
     }
 
     public SearchNextRes searchNext(long key) {
+        SearchNextRes res = new SearchNextRes();
+        searchNext(key, res);
+        return res;
+    }
+
+    // 结果写入调用者提供的res，自顶向下查找时整条路径复用同一个res；叶子节点只设置isLeaf
+    public void searchNext(long key, SearchNextRes res) {
         dataItem.rLock();
         try {
-            SearchNextRes res = new SearchNextRes();
+            res.isLeaf = getRawIfLeaf(raw);
+            res.uid = 0;
+            res.siblingUid = 0;
+            if(res.isLeaf) {
+                return;
+            }
             int noKeys = getRawNoKeys(raw);
             for(int i = 0; i < noKeys; i ++) {
                 long ik = getRawKthKey(raw, i);
                 if(key < ik) {
                     res.uid = getRawKthSon(raw, i);
-                    res.siblingUid = 0;
-                    return res;
+                    return;
                 }
             }
-            res.uid = 0;
             res.siblingUid = getRawSibling(raw);
-            return res;
-
         } finally {
             dataItem.rUnLock();
         }
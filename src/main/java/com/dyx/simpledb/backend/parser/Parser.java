@@ -6,6 +6,7 @@ import java.util.List;
 import com.dyx.simpledb.backend.parser.statement.*;
 import com.dyx.simpledb.backend.parser.statement.DeleteObj;
 import com.dyx.simpledb.backend.vm.IsolationLevel;
+import com.dyx.simpledb.backend.vm.LockMode;
 import com.dyx.simpledb.common.Error;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
@@ -29,6 +30,9 @@ import net.sf.jsqlparser.statement.update.Update;
 import net.sf.jsqlparser.statement.update.UpdateSet;
 
 public class Parser {
+    // JSqlParser不支持FOR SHARE，解析前去掉
+    private static final String FOR_SHARE = "(?is)\\s+for\\s+share\\s*;?$";
+
     public static Object Parse(byte[] statement) throws Exception {
         String sql = new String(statement).trim();
 
@@ -38,6 +42,14 @@ public class Parser {
             return parseAbort();
         } else if (sql.equalsIgnoreCase("COMMIT") || sql.equalsIgnoreCase("COMMIT;")) {
             return parseCommit();
+        } else if (sql.equalsIgnoreCase("VACUUM") || sql.equalsIgnoreCase("VACUUM;")) {
+            return parseVacuum();
+        }
+
+        boolean forShare = false;
+        if (sql.toUpperCase().startsWith("SELECT") && sql.matches("(?is).*" + FOR_SHARE)) {
+            forShare = true;
+            sql = sql.replaceAll(FOR_SHARE, "");
         }
 
         Statement parsedStatement;
@@ -57,7 +69,11 @@ public class Parser {
         if (parsedStatement instanceof CreateTable) {
             return parseCreate((CreateTable) parsedStatement);
         } else if (parsedStatement instanceof Select) {
-            return parseSelect((Select) parsedStatement);
+            SelectObj read = parseSelect((Select) parsedStatement);
+            if (forShare) {
+                read.lockMode = LockMode.SHARED;
+            }
+            return read;
         } else if (parsedStatement instanceof Insert) {
             return parseInsert((Insert) parsedStatement);
         } else if (parsedStatement instanceof Update) {
@@ -109,6 +125,10 @@ public class Parser {
                 read.orderByExpression.fields = orderFields.toArray(new String[0]);
                 read.orderByExpression.order = orderAscFields.toArray(new Boolean[0]);
 
+                if (plainSelect.isForUpdate()) {
+                    read.lockMode = LockMode.EXCLUSIVE;
+                }
+
                 // 设置 WHERE 子句
                 if (plainSelect.getWhere() != null) {
                     read.where = parseWhere(plainSelect.getWhere().toString());
@@ -124,6 +144,8 @@ public class Parser {
         String name = showStatement.getName();
         if (name.equalsIgnoreCase("table")) {
             show.isTable = true;
+        } else if (name.equalsIgnoreCase("memory")) {
+            show.isMemory = true;
         }
         show.tableName = name;
         return show;
@@ -347,6 +369,11 @@ public class Parser {
         return new Commit();
     }
 
+    private static Vacuum parseVacuum() {
+        return new Vacuum();
+    }
+
+    // BEGIN [ISOLATION LEVEL ...] [READ ONLY] [OPTIMISTIC] [ASYNC]，选项顺序任意，每个选项最多出现一次
     private static Begin parseBegin(String sql) throws Exception {
         sql = sql.trim();
         if (sql.endsWith(";")) {
@@ -354,70 +381,68 @@ public class Parser {
         }
 
         Tokenizer tokenizer = new Tokenizer(sql.getBytes());
-        tokenizer.peek();
+        if (!"begin".equalsIgnoreCase(tokenizer.peek())) {
+            throw Error.InvalidCommandException;
+        }
         tokenizer.pop();
 
-        String isolation = tokenizer.peek();
         Begin begin = new Begin();
-        if ("".equals(isolation)) {
-            begin.isolationLevel = IsolationLevel.READ_COMMITTED;
-            return begin;
+        while (true) {
+            String option = tokenizer.peek();
+            if ("".equals(option)) {
+                break;
+            }
+            tokenizer.pop();
+            if ("isolation".equalsIgnoreCase(option) && begin.isolationLevel == null) {
+                begin.isolationLevel = parseIsolationLevel(tokenizer);
+            } else if ("read".equalsIgnoreCase(option) && !begin.readOnly) {
+                expect(tokenizer, "only");
+                begin.readOnly = true;
+            } else if ("optimistic".equalsIgnoreCase(option) && !begin.optimistic) {
+                begin.optimistic = true;
+            } else if ("async".equalsIgnoreCase(option) && !begin.asyncCommit) {
+                begin.asyncCommit = true;
+            } else {
+                throw Error.InvalidCommandException;
+            }
         }
-        if (!"isolation".equalsIgnoreCase(isolation)) {
+        // 只读事务没有写入，不能同时指定乐观并发控制
+        if (begin.readOnly && begin.optimistic) {
             throw Error.InvalidCommandException;
         }
-
-        tokenizer.pop();
-        String level = tokenizer.peek();
-        if (!"level".equalsIgnoreCase(level)) {
-            throw Error.InvalidCommandException;
+        if (begin.isolationLevel == null) {
+            begin.isolationLevel = IsolationLevel.READ_COMMITTED;
         }
-        tokenizer.pop();
+        return begin;
+    }
 
+    // ISOLATION 之后的 LEVEL <隔离级别>
+    private static IsolationLevel parseIsolationLevel(Tokenizer tokenizer) throws Exception {
+        expect(tokenizer, "level");
         String tmp1 = tokenizer.peek();
+        tokenizer.pop();
         if ("read".equalsIgnoreCase(tmp1)) {
-            tokenizer.pop();
             String tmp2 = tokenizer.peek();
+            tokenizer.pop();
             if ("committed".equalsIgnoreCase(tmp2)) {
-                tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                begin.isolationLevel = IsolationLevel.READ_COMMITTED;
-                return begin;
+                return IsolationLevel.READ_COMMITTED;
             } else if ("uncommitted".equalsIgnoreCase(tmp2)) {
-                tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                begin.isolationLevel = IsolationLevel.READ_UNCOMMITTED;
-                return begin;
-            } else {
-                throw Error.InvalidCommandException;
+                return IsolationLevel.READ_UNCOMMITTED;
             }
         } else if ("repeatable".equalsIgnoreCase(tmp1)) {
-            tokenizer.pop();
-            String tmp2 = tokenizer.peek();
-            if ("read".equals(tmp2)) {
-                begin.isolationLevel = IsolationLevel.REPEATABLE_READ;
-                tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
-            } else {
-                throw Error.InvalidCommandException;
-            }
+            expect(tokenizer, "read");
+            return IsolationLevel.REPEATABLE_READ;
         } else if ("serializable".equalsIgnoreCase(tmp1)) {
-            tokenizer.pop();
-            if (!"".equals(tokenizer.peek())) {
-                throw Error.InvalidCommandException;
-            }
-            begin.isolationLevel = IsolationLevel.SERIALIZABLE;
-            return begin;
-        } else {
+            return IsolationLevel.SERIALIZABLE;
+        }
+        throw Error.InvalidCommandException;
+    }
+
+    private static void expect(Tokenizer tokenizer, String word) throws Exception {
+        if (!word.equalsIgnoreCase(tokenizer.peek())) {
             throw Error.InvalidCommandException;
         }
+        tokenizer.pop();
     }
 
 
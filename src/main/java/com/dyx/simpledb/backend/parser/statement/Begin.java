@@ -6,4 +6,7 @@ import lombok.ToString;
 @ToString
 public class Begin {
     public IsolationLevel isolationLevel;
+    public boolean asyncCommit;
+    public boolean readOnly;
+    public boolean optimistic;
 }
@@ -1,5 +1,6 @@
 package com.dyx.simpledb.backend.parser.statement;
 
+import com.dyx.simpledb.backend.vm.LockMode;
 import lombok.ToString;
 
 @ToString
@@ -8,4 +9,5 @@ public class SelectObj {
     public String[] fields;
     public Where where;
     public OrderByExpression orderByExpression;
+    public LockMode lockMode;   // FOR UPDATE / FOR SHARE，null表示普通的快照读
 }
@@ -3,4 +3,5 @@ package com.dyx.simpledb.backend.parser.statement;
 public class Show {
     public String tableName;
     public boolean isTable;
+    public boolean isMemory;    // SHOW MEMORY，各缓存的内存占用
 }
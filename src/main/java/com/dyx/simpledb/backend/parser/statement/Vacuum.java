@@ -0,0 +1,5 @@
+package com.dyx.simpledb.backend.parser.statement;
+
+public class Vacuum {
+
+}
@@ -1,5 +1,11 @@
 package com.dyx.simpledb.backend.server;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.dyx.simpledb.backend.common.TimingWheel;
 import com.dyx.simpledb.backend.parser.Parser;
 import com.dyx.simpledb.backend.parser.statement.*;
 import com.dyx.simpledb.backend.parser.statement.DeleteObj;
@@ -8,14 +14,39 @@ import com.dyx.simpledb.backend.tbm.TableManager;
 import com.dyx.simpledb.common.Error;
 
 public class Executor {
-    private long xid;
+    private static volatile long statementTimeout;  // 语句超时，毫秒，0表示不限制
+    private static volatile long idleTimeout;       // 事务内两条语句之间的最长空闲，毫秒，0表示不限制
+    // 回滚空闲事务要写日志、释放锁，不能占用共享的时间轮线程
+    private static final ExecutorService idleReaper = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "idle-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile long xid;
+    private boolean readOnly;
     TableManager tbm;
 
+    private final Lock execLock = new ReentrantLock();  // 语句执行期间持有，空闲超时据此判断会话是否空闲
+    private long idleSeq;
+    private TimingWheel.Timeout idleTimer;
+    private Exception idleAborted;      // 事务已因空闲超时回滚，下一条语句报告该错误
+    private long statementSeq;          // 以下两项由this保护
+    private boolean running;
+
     public Executor(TableManager tbm) {
         this.tbm = tbm;
         this.xid = 0;
     }
 
+    public static void setStatementTimeout(long millis) {
+        statementTimeout = millis;
+    }
+
+    public static void setIdleTimeout(long millis) {
+        idleTimeout = millis;
+    }
+
     public void close() {
         if(xid != 0) {
             System.out.println("Abnormal Abort: " + xid);
@@ -24,6 +55,28 @@ public class Executor {
     }
 
     public byte[] execute(byte[] sql) throws Exception {
+        execLock.lock();
+        try {
+            if(idleTimer != null) {
+                idleTimer.cancel();
+                idleTimer = null;
+            }
+            if(idleAborted != null) {
+                Exception e = idleAborted;
+                idleAborted = null;
+                throw e;
+            }
+            try {
+                return execute1(sql);
+            } finally {
+                scheduleIdleTimeout();
+            }
+        } finally {
+            execLock.unlock();
+        }
+    }
+
+    private byte[] execute1(byte[] sql) throws Exception {
         System.out.println("Execute: " + new String(sql));
         Object stat = Parser.Parse(sql);
         if(Begin.class.isInstance(stat)) {
@@ -32,6 +85,7 @@ public class Executor {
             }
             BeginRes r = tbm.begin((Begin)stat);
             xid = r.xid;
+            readOnly = ((Begin)stat).readOnly;
             return r.result;
         } else if(Commit.class.isInstance(stat)) {
             if(xid == 0) {
@@ -39,6 +93,7 @@ public class Executor {
             }
             byte[] res = tbm.commit(xid);
             xid = 0;
+            readOnly = false;
             return res;
         } else if(Abort.class.isInstance(stat)) {
             if(xid == 0) {
@@ -46,6 +101,7 @@ public class Executor {
             }
             byte[] res = tbm.abort(xid);
             xid = 0;
+            readOnly = false;
             return res;
         } else {
             return execute2(stat);
@@ -57,9 +113,16 @@ public class Executor {
         Exception e = null;
         if(xid == 0) {
             tmpTransaction = true;
-            BeginRes r = tbm.begin(new Begin());
+            // 自动提交的查询以只读事务执行，不分配XID
+            Begin begin = new Begin();
+            begin.readOnly = isReadOnly(stat);
+            BeginRes r = tbm.begin(begin);
             xid = r.xid;
+            readOnly = begin.readOnly;
+        } else if(readOnly && !isReadOnly(stat)) {
+            throw Error.ReadOnlyTransactionException;
         }
+        TimingWheel.Timeout statementTimer = startStatementTimer();
         try {
             byte[] res = null;
             if(Show.class.isInstance(stat)) {
@@ -76,20 +139,102 @@ public class Executor {
                 res = tbm.update(xid, (UpdateObj)stat);
             }else if(DropObj.class.isInstance(stat)) {
                 res = tbm.drop(xid, (DropObj)stat);
+            } else if(Vacuum.class.isInstance(stat)) {
+                res = tbm.vacuum(xid, (Vacuum)stat);
             }
             return res;
         } catch(Exception e1) {
             e = e1;
             throw e;
         } finally {
+            // 先停止计时，之后不会再有取消，自动提交的事务才能正常提交或回滚
+            stopStatementTimer(statementTimer);
             if(tmpTransaction) {
-                if(e != null) {
-                    tbm.abort(xid);
-                } else {
-                    tbm.commit(xid);
+                try {
+                    if(e != null) {
+                        tbm.abort(xid);
+                    } else {
+                        try {
+                            tbm.commit(xid);
+                        } catch(Exception ce) {
+                            // 语句的最后一次操作之后才被取消或wound，错误在提交时报告，事务需回滚
+                            tbm.abort(xid);
+                            throw ce;
+                        }
+                    }
+                } finally {
+                    xid = 0;
+                    readOnly = false;
                 }
-                xid = 0;
             }
         }
     }
+
+    private TimingWheel.Timeout startStatementTimer() {
+        long timeout = statementTimeout;
+        if(timeout <= 0) {
+            return null;
+        }
+        long seq;
+        synchronized (this) {
+            running = true;
+            seq = ++ statementSeq;
+        }
+        return TimingWheel.shared().schedule(timeout, () -> expireStatement(seq));
+    }
+
+    private void stopStatementTimer(TimingWheel.Timeout timer) {
+        if(timer == null) {
+            return;
+        }
+        synchronized (this) {
+            running = false;
+        }
+        timer.cancel();
+    }
+
+    // 在时间轮线程中执行：中止仍在运行的语句，事务随之回滚
+    private synchronized void expireStatement(long seq) {
+        if(running && statementSeq == seq) {
+            tbm.cancel(xid, Error.StatementTimeoutException);
+        }
+    }
+
+    // 显式事务中的语句执行完后开始计时，下一条语句到来时取消
+    private void scheduleIdleTimeout() {
+        long timeout = idleTimeout;
+        if(xid == 0 || timeout <= 0) {
+            return;
+        }
+        long seq = ++ idleSeq;
+        idleTimer = TimingWheel.shared().schedule(timeout, () -> idleReaper.execute(() -> abortIdle(seq)));
+    }
+
+    // 在idle-reaper线程中执行：会话正在执行语句时不是空闲，直接放弃
+    private void abortIdle(long seq) {
+        if(!execLock.tryLock()) {
+            return;
+        }
+        try {
+            if(idleSeq != seq || idleTimer == null || xid == 0) {
+                return;
+            }
+            idleTimer = null;
+            System.out.println("Idle Abort: " + xid);
+            tbm.abort(xid);
+            xid = 0;
+            readOnly = false;
+            idleAborted = Error.IdleTransactionTimeoutException;
+        } finally {
+            execLock.unlock();
+        }
+    }
+
+    private boolean isReadOnly(Object stat) {
+        if(SelectObj.class.isInstance(stat)) {
+            // 加锁读需要真实的XID
+            return ((SelectObj) stat).lockMode == null;
+        }
+        return Show.class.isInstance(stat);
+    }
 }
@@ -83,19 +83,19 @@ public class Field {
         position += 4;
 
         // 解析字段名称
-        ParseStringRes res = Parser.parseString(Arrays.copyOfRange(raw,position,raw.length));
+        ParseStringRes res = Parser.parseString(raw, position);
         fieldName = res.str;
         position += res.next;
 
         // 解析字段类型
-        res = Parser.parseString(Arrays.copyOfRange(raw, position, raw.length));
+        res = Parser.parseString(raw, position);
         fieldType = res.str;
         position += res.next;
         // 获取初始值
         defaultValue = getDefaultValue();
 
         // 解析索引 UID
-        this.index = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+        this.index = Parser.getLong(raw, position);
 
         // 如果字段有索引，加载 B+ 树
         if (index != 0) {
@@ -209,14 +209,15 @@ public class Field {
         int shift;
     }
 
-    public ParseValueRes parserValue(byte[] raw) {
+    // 从raw的offset处解析本字段的值
+    public ParseValueRes parserValue(byte[] raw, int offset) {
         ParseValueRes res = new ParseValueRes();
         try {
             // 将 fieldType 转换为 SupportedType 枚举
             Types.SupportedType type = Types.SupportedType.fromTypeName(fieldType);
 
             // 使用枚举的 parseValueFromBytes 方法进行解析
-            Object parsedValue = type.parseValueFromBytes(raw);
+            Object parsedValue = type.parseValueFromBytes(raw, offset);
             if (parsedValue instanceof ParseStringRes) {
                 ParseStringRes stringRes = (ParseStringRes) parsedValue;
                 res.v = stringRes.str;
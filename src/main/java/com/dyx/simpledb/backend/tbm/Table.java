@@ -7,7 +7,9 @@ import cn.hutool.core.util.StrUtil;
 import com.dyx.simpledb.backend.im.UniqueIndex;
 import com.dyx.simpledb.backend.parser.statement.*;
 import com.dyx.simpledb.backend.utils.*;
+import com.dyx.simpledb.backend.vm.LockMode;
 import com.dyx.simpledb.backend.vm.Transaction;
+import com.dyx.simpledb.backend.vm.VersionManagerImpl;
 import com.google.common.primitives.Bytes;
 
 import com.dyx.simpledb.backend.parser.statement.DeleteObj;
@@ -33,6 +35,7 @@ public class Table {
     private Map<String, Field> fieldCache = new HashMap<>();
     // 在 Table 类中定义一个哈希索引的存储结构
     private Map<String, UniqueIndex> hasUniqueIndexes = new HashMap<>();
+    private volatile boolean dropped;   // 已被删除，等待表锁期间表被删除的语句据此失败
 
     public static Table loadTable(TableManager tbm, long uid) {
         byte[] raw = null;
@@ -114,11 +117,11 @@ public class Table {
         ParseStringRes res = Parser.parseString(raw);
         name = res.str;
         position += res.next;
-        nextUid = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+        nextUid = Parser.getLong(raw, position);
         position += 8;
 
         while (position < raw.length) {
-            long uid = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+            long uid = Parser.getLong(raw, position);
             position += 8;
             fields.add(Field.loadField(this, uid));
         }
@@ -138,10 +141,15 @@ public class Table {
 
     public int delete(long xid, DeleteObj deleteObj) throws Exception {
         checkColumn(deleteObj.where);
+        lockTable(xid, LockMode.INTENTION_EXCLUSIVE);
         List<Long> uids = parseWhere(deleteObj.where, xid);
+        escalate(xid, uids, LockMode.EXCLUSIVE);
         int count = 0;
-        for (Long uid : uids) {
-            Map<String, Object> entry = parseEntry(((TableManagerImpl) tbm).vm.read(xid, uid));
+        byte[][] raws = readBatch(xid, uids);
+        for (int n = 0; n < uids.size(); n++) {
+            long uid = uids.get(n);
+            if (raws[n] == null) continue;
+            Map<String, Object> entry = parseEntry(raws[n]);
 
             // 删除哈希索引中的记录
             for (Field field : fields) {
@@ -153,7 +161,7 @@ public class Table {
                 }
             }
             // 删除数据
-            if (((TableManagerImpl) tbm).vm.delete(xid, uid)) {
+            if (((TableManagerImpl) tbm).vm.delete(xid, this.uid, uid)) {
                 count++;
             }
         }
@@ -166,7 +174,9 @@ public class Table {
 
     public int update(long xid, UpdateObj updateObj) throws Exception {
         checkColumn(updateObj.where);
+        lockTable(xid, LockMode.INTENTION_EXCLUSIVE);
         List<Long> uids = parseWhere(updateObj.where, xid);
+        escalate(xid, uids, LockMode.EXCLUSIVE);
 
         boolean fieldIsExist = false;
         // 匹配需要修改的字段是否存在
@@ -181,35 +191,49 @@ public class Table {
             throw Error.FieldNotFoundException;
 
         int count = 0;
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
+        byte[][] raws = readBatch(xid, uids);
+        for (int n = 0; n < uids.size(); n++) {
+            long uid = uids.get(n);
+            byte[] raw = raws[n];
             if (raw == null) continue;
 
             Map<String, Object> entry = parseEntry(raw);
-            // 删除旧值的唯一索引，只针对变更的字段
+            boolean keyChanged = false;
+            // 新值按字段类型解析后再与旧值比较，并写回记录
             for (Field field : fields) {
                 for (int i = 0; i < updateObj.fieldName.length; i++) {
-                    String fieldName = updateObj.fieldName[i];
-                    Object newValue = updateObj.value[i];
-                    Object oldValue = entry.get(fieldName);
-                    // 仅删除发生变化的唯一索引
-                    if (!newValue.equals(oldValue) && field.isUnique && field.fieldName.equalsIgnoreCase(fieldName)) {
+                    if (!field.fieldName.equalsIgnoreCase(updateObj.fieldName[i])) {
+                        continue;
+                    }
+                    Object newValue = field.string2Value(updateObj.value[i]);
+                    Object oldValue = entry.put(field.fieldName, newValue);
+                    if (newValue.equals(oldValue)) {
+                        continue;
+                    }
+                    if (field.isIndexed() || field.isUnique) {
+                        keyChanged = true;
+                    }
+                    // 仅更新发生变化的唯一索引
+                    if (field.isUnique) {
                         hasUniqueIndexes.get(field.fieldName).update(field.fieldName, oldValue, newValue, xid);
                     }
                 }
             }
 
-            // 更新字段的值
-            for (int i = 0; i < updateObj.fieldName.length; i++) {
-                entry.put(updateObj.fieldName[i], updateObj.value[i]);
-            }
-
             // 写回更新后的记录
             raw = entry2Raw(entry);
+
+            // 索引列未变化时由VM原地或沿HOT链更新，uid不变，索引无需维护
+            if (!keyChanged) {
+                if (((TableManagerImpl) tbm).vm.update(xid, this.uid, uid, raw)) {
+                    count++;
+                }
+                continue;
+            }
             long newUid = ((TableManagerImpl) tbm).vm.insert(xid, raw);
 
             // 删除旧记录
-            ((TableManagerImpl) tbm).vm.delete(xid, uid);
+            ((TableManagerImpl) tbm).vm.delete(xid, this.uid, uid);
             count++;
             // 插入新的唯一索引，仅针对变更的字段
             for (Field field : fields) {
@@ -217,6 +241,8 @@ public class Table {
                     field.insert(entry.get(field.fieldName), newUid);
                 }
             }
+            // 索引键变化的记录相当于插入新记录，可能落入其他事务读过的键范围
+            predicateWrite(xid, entry);
         }
 
         // 记录该表被修改
@@ -228,7 +254,16 @@ public class Table {
 
     public String read(long xid, SelectObj read) throws Exception {
         checkColumn(read.where);
+        if (read.lockMode == null) {
+            // 快照读不参与记录锁，只需防止表被删除，表锁升级时不受影响
+            lockMetadata(xid, LockMode.SHARED);
+        } else {
+            lockTable(xid, read.lockMode == LockMode.EXCLUSIVE ? LockMode.INTENTION_EXCLUSIVE : LockMode.INTENTION_SHARED);
+        }
         List<Long> uids = parseWhere(read.where, xid);
+        if (read.lockMode != null) {
+            escalate(xid, uids, read.lockMode);
+        }
         List<Map<String, Object>> entries = new ArrayList<>();
         String[] fieldsToOutput;
 
@@ -242,8 +277,13 @@ public class Table {
             fieldsToOutput = read.fields;
         }
 
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
+        byte[][] raws = read.lockMode == null ? readBatch(xid, uids) : null;
+        for (int n = 0; n < uids.size(); n++) {
+            long uid = uids.get(n);
+            // FOR UPDATE / FOR SHARE 锁住返回的每一行，直到事务结束
+            byte[] raw = read.lockMode == null
+                    ? raws[n]
+                    : ((TableManagerImpl) tbm).vm.read(xid, this.uid, uid, read.lockMode);
             if (raw == null) continue;
 
             Map<String, Object> entry = parseEntry(raw);
@@ -289,6 +329,7 @@ public class Table {
     }
 
     public void insert(long xid, InsertObj insertObj) throws Exception {
+        lockTable(xid, LockMode.INTENTION_EXCLUSIVE);
         Map<String, Object> entry = string2Entry(insertObj);
         Set<String> insertedUniqueFields = new HashSet<>();  // 用于记录成功插入的唯一索引字段
 
@@ -320,6 +361,8 @@ public class Table {
                 field.insert(entry.get(field.fieldName), uid);
             }
         }
+        // 可串行化事务检查插入是否落入并发事务读过的表或索引键范围
+        predicateWrite(xid, entry);
 
         // 记录该表被修改
         Transaction t = ((TableManagerImpl) tbm).vm.getActiveTransaction(xid);
@@ -327,12 +370,14 @@ public class Table {
     }
 
 
+    // 调用者需已持有表的X锁
     public void drop(long xid) throws Exception {
+        dropped = true;
         // 先删除表中所有数据
         List<Long> allUid = getAllUid();
         for (Long uid : allUid) {
             // 先逻辑删除，确保无事务引用
-            ((TableManagerImpl) tbm).vm.delete(xid, uid);
+            ((TableManagerImpl) tbm).vm.delete(xid, this.uid, uid);
         }
         for (Long uid : allUid) {
             // 再物理删除
@@ -351,6 +396,54 @@ public class Table {
         ((TableManagerImpl) tbm).vm.physicalDelete(xid, this.uid); // 物理删除表元数据
     }
 
+    // 需在记录写入堆和索引之后调用：之后登记范围的读者能查到新记录，之前登记的读者由此发现
+    private void predicateWrite(long xid, Map<String, Object> entry) throws Exception {
+        List<Field> indexed = new ArrayList<>();
+        for (Field field : fields) {
+            if (field.isIndexed()) {
+                indexed.add(field);
+            }
+        }
+        long[] indexUids = new long[indexed.size()];
+        long[] keys = new long[indexed.size()];
+        for (int i = 0; i < indexUids.length; i++) {
+            Field field = indexed.get(i);
+            indexUids[i] = field.uid;
+            keys[i] = field.value2Uid(entry.get(field.fieldName));
+        }
+        ((TableManagerImpl) tbm).vm.predicateWrite(xid, uid, indexUids, keys);
+    }
+
+    // 获取表锁，先以对应的模式取得元数据锁：删除表时为X，其余为S
+    public void lockTable(long xid, LockMode mode) throws Exception {
+        lockMetadata(xid, mode == LockMode.EXCLUSIVE ? LockMode.EXCLUSIVE : LockMode.SHARED);
+        ((TableManagerImpl) tbm).vm.lockTable(xid, uid, mode);
+    }
+
+    // 获取元数据锁，等待期间表可能已被删除
+    public void lockMetadata(long xid, LockMode mode) throws Exception {
+        ((TableManagerImpl) tbm).vm.lockMetadata(xid, uid, mode);
+        if (dropped) {
+            throw Error.TableNotFoundException;
+        }
+    }
+
+    // 按页批量读取记录，结果与uids的顺序一致
+    private byte[][] readBatch(long xid, List<Long> uids) throws Exception {
+        long[] arr = new long[uids.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = uids.get(i);
+        }
+        return ((TableManagerImpl) tbm).vm.readBatch(xid, arr);
+    }
+
+    // 语句涉及的行数超过阈值时直接以mode锁住整张表，不再逐行加锁
+    private void escalate(long xid, List<Long> uids, LockMode mode) throws Exception {
+        if (uids.size() > VersionManagerImpl.LOCK_ESCALATION_THRESHOLD) {
+            ((TableManagerImpl) tbm).vm.lockTable(xid, uid, mode);
+        }
+    }
+
     private Map<String, Object> string2Entry(InsertObj insertObj) {
         Map<String, Object> entry = new HashMap<>();
         int valuesIndex = 0;
@@ -433,9 +526,12 @@ public class Table {
         return value;
     }
 
+    // 可串行化事务在此登记谓词读：按索引查找时只锁住查找的键范围，需要全表扫描时锁住整张表
     private List<Long> parseWhere(Where where, long xid) throws Exception {
-        if (where == null)
+        if (where == null) {
+            ((TableManagerImpl) tbm).vm.predicateRead(xid, uid);
             return getAllUid();
+        }
 
         Field indexedField1 = findIndexedField(where.singleExp1.field);
         Field indexedField2 = where.singleExp2 != null ? findIndexedField(where.singleExp2.field) : null;
@@ -444,12 +540,14 @@ public class Table {
 
         // 如果两个条件字段都没有索引，执行全表扫描
         if (indexedField1 == null && indexedField2 == null) {
+            ((TableManagerImpl) tbm).vm.predicateRead(xid, uid);
             return performFullTableScanWithCondition(where, xid);
         }
 
         // 如果第一个条件字段有索引，使用第一个条件字段进行初步查询
         if (indexedField1 != null) {
             CalWhereRes res = calWhere(indexedField1, where.singleExp1);
+            ((TableManagerImpl) tbm).vm.predicateRead(xid, indexedField1.uid, res.l0, res.r0);
             uids = indexedField1.search(res.l0, res.r0);
 
             // 如果存在第二个条件字段
@@ -457,6 +555,7 @@ public class Table {
                 // 如果第二个条件字段也有索引，进行第二次索引查询
                 if (indexedField2 != null) {
                     CalWhereRes res2 = calWhere(indexedField2, where.singleExp2);
+                    ((TableManagerImpl) tbm).vm.predicateRead(xid, indexedField2.uid, res2.l0, res2.r0);
                     List<Long> additionalUids = indexedField2.search(res2.l0, res2.r0);
 
                     if ("and".equals(where.logicOp)) {
@@ -468,6 +567,10 @@ public class Table {
                     }
                 } else {
                     // 如果第二个条件字段没有索引，执行全表扫描，并取并集
+                    // and的结果落在第一个条件的键范围内，只有or需要锁住整张表
+                    if (!"and".equals(where.logicOp)) {
+                        ((TableManagerImpl) tbm).vm.predicateRead(xid, uid);
+                    }
                     List<Long> additionalUids = performFullTableScanWithCondition(new Where(where.singleExp2), xid);
                     if ("and".equals(where.logicOp)) {
                         uids.retainAll(additionalUids); // 取交集
@@ -481,9 +584,13 @@ public class Table {
         } else {
             // 如果第一个条件字段没有索引但第二个条件字段有索引
             CalWhereRes res = calWhere(indexedField2, where.singleExp2);
+            ((TableManagerImpl) tbm).vm.predicateRead(xid, indexedField2.uid, res.l0, res.r0);
             uids = indexedField2.search(res.l0, res.r0);
 
             // 因为第一个条件字段没有索引，需要全表扫描
+            if (!"and".equals(where.logicOp)) {
+                ((TableManagerImpl) tbm).vm.predicateRead(xid, uid);
+            }
             List<Long> additionalUids = performFullTableScanWithCondition(new Where(where.singleExp1), xid);
             if ("and".equals(where.logicOp)) {
                 uids.retainAll(additionalUids); // 取交集
@@ -517,8 +624,11 @@ public class Table {
 
     private List<Long> performFullTableScanWithCondition(Where where, long xid) throws Exception {
         List<Long> uids = new ArrayList<>();
-        for (Long uid : getAllUid()) {
-            byte[] data = ((TableManagerImpl) tbm).vm.read(xid, uid);
+        List<Long> all = getAllUid();
+        byte[][] raws = readBatch(xid, all);
+        for (int n = 0; n < all.size(); n++) {
+            long uid = all.get(n);
+            byte[] data = raws[n];
             if (data == null) continue;
 
             Map<String, Object> record = parseEntry(data);
@@ -624,7 +734,7 @@ public class Table {
         int pos = 0;
         Map<String, Object> entry = new HashMap<>();
         for (Field field : fields) {
-            ParseValueRes r = field.parserValue(Arrays.copyOfRange(raw, pos, raw.length));
+            ParseValueRes r = field.parserValue(raw, pos);
             entry.put(field.fieldName, r.v);
             pos += r.shift;
         }
@@ -689,6 +799,25 @@ public class Table {
         return true;
     }
 
+    // 冻结本表的所有记录以及表和字段的元数据，返回修改的记录数
+    public int vacuum(long horizon) throws Exception {
+        Set<Long> uids = new LinkedHashSet<>();
+        uids.add(uid);
+        for (Field field : fields) {
+            uids.add(field.uid);
+            if (field.isIndexed()) {
+                uids.addAll(field.search(Long.MIN_VALUE, Long.MAX_VALUE));
+            }
+        }
+        int count = 0;
+        for (Long uid : uids) {
+            if (((TableManagerImpl) tbm).vm.freeze(uid, horizon)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     // 事务提交操作
     public void commit(long xid) throws Exception {
         // 提交唯一索引
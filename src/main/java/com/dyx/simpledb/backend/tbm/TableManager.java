@@ -10,10 +10,12 @@ public interface TableManager {
     BeginRes begin(Begin begin);
     byte[] commit(long xid) throws Exception;
     byte[] abort(long xid);
+    void cancel(long xid, Exception reason);
 
     byte[] show(long xid, Show stat);
     byte[] create(long xid, Create create) throws Exception;
     byte[] drop(long xid, DropObj stat) throws Exception;
+    byte[] vacuum(long xid, Vacuum stat) throws Exception;
 
     byte[] insert(long xid, InsertObj insertObj) throws Exception;
     byte[] read(long xid, SelectObj selectObj) throws Exception;
@@ -4,6 +4,7 @@ import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.dyx.simpledb.backend.common.MemoryManager;
 import com.dyx.simpledb.backend.dm.DataManager;
 import com.dyx.simpledb.backend.parser.statement.*;
 import com.dyx.simpledb.backend.parser.statement.DeleteObj;
@@ -11,6 +12,7 @@ import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
 import com.dyx.simpledb.backend.utils.Parser;
 import com.dyx.simpledb.backend.utils.PrintUtil;
 import com.dyx.simpledb.backend.vm.IsolationLevel;
+import com.dyx.simpledb.backend.vm.LockMode;
 import com.dyx.simpledb.backend.vm.VersionManager;
 import com.dyx.simpledb.common.Error;
 
@@ -62,7 +64,11 @@ public class TableManagerImpl implements TableManager {
     public BeginRes begin(Begin begin) {
         BeginRes res = new BeginRes();
         IsolationLevel isolationLevel = begin.isolationLevel;
-        res.xid = vm.begin(isolationLevel);
+        if (begin.readOnly) {
+            res.xid = vm.beginReadOnly(isolationLevel);
+        } else {
+            res.xid = vm.begin(isolationLevel, begin.asyncCommit, begin.optimistic);
+        }
         res.result = "begin".getBytes();
         return res;
     }
@@ -73,6 +79,11 @@ public class TableManagerImpl implements TableManager {
         return "commit".getBytes();
     }
 
+    @Override
+    public void cancel(long xid, Exception reason) {
+        vm.cancel(xid, reason);
+    }
+
     @Override
     public byte[] abort(long xid) {
         vm.abort(xid);
@@ -96,6 +107,9 @@ public class TableManagerImpl implements TableManager {
                 }
                 return PrintUtil.printTable(columns, entries).getBytes();
             }
+            if (stat.isMemory) {
+                return PrintUtil.printTable(MemoryManager.REPORT_COLUMNS, dm.getMemoryManager().report()).getBytes();
+            }
             if (tableCache.containsKey(stat.tableName)) {
                 columns = Arrays.asList("field", "fieldType", "isIndexed", "constraint").toArray(new String[0]);
                 Table table = tableCache.get(stat.tableName);
@@ -191,7 +205,15 @@ public class TableManagerImpl implements TableManager {
     public byte[] drop(long xid, DropObj stat) throws Exception {
         lock.lock();
         Table table = tableCache.get(stat.tableName);
+        lock.unlock();
         if (table == null) {
+            throw Error.TableNotFoundException;
+        }
+        // 等待正在使用该表的事务结束，等待期间不能持有lock，否则其他会话无法执行语句
+        table.lockTable(xid, LockMode.EXCLUSIVE);
+
+        lock.lock();
+        if (tableCache.get(stat.tableName) != table) {
             lock.unlock();
             throw Error.TableNotFoundException;
         }
@@ -210,6 +232,31 @@ public class TableManagerImpl implements TableManager {
         }
     }
 
+    // 冻结所有表中早于冻结点的事务留下的XID，然后丢弃这些事务的状态
+    // 逐表以S持有元数据锁，与删除表互斥；等待期间已被删除的表跳过
+    @Override
+    public byte[] vacuum(long xid, Vacuum stat) throws Exception {
+        lock.lock();
+        List<Table> tables = new ArrayList<>(tableCache.values());
+        lock.unlock();
+
+        long horizon = vm.getFreezeHorizon();
+        int count = 0;
+        for (Table table : tables) {
+            try {
+                table.lockMetadata(xid, LockMode.SHARED);
+            } catch (Exception e) {
+                if (e == Error.TableNotFoundException) {
+                    continue;
+                }
+                throw e;
+            }
+            count += table.vacuum(horizon);
+        }
+        vm.truncate(horizon);
+        return ("vacuum " + count).getBytes();
+    }
+
     private void updateTableChainAfterDrop(long droppedTableUid) throws Exception {
         long firstUid = firstTableUid();
 
@@ -12,10 +12,17 @@ import com.dyx.simpledb.common.Error;
 
 public interface TransactionManager {
     long begin();
+    long getXidCounter();
     void commit(long xid);
+    void commitAsync(long xid);
+    void flushStatus();
+    void truncate(long horizon);
+    void setLogFlusher(Runnable logFlusher);
+    void setAsyncCommitDelay(long millis);
     void abort(long xid);
     boolean isActive(long xid);
     boolean isCommitted(long xid);
+    boolean isCommitPersisted(long xid);
     boolean isAborted(long xid);
     void close();
 
@@ -50,7 +57,7 @@ public interface TransactionManager {
             Panic.panic(e);
         }
         
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(f, raf, fc);
     }
 
     public static TransactionManagerImpl open(String path) {
@@ -71,6 +78,6 @@ public interface TransactionManager {
            Panic.panic(e);
         }
 
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(f, raf, fc);
     }
 }
@@ -1,20 +1,41 @@
 package com.dyx.simpledb.backend.tm;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.dyx.simpledb.backend.common.LongHashMap;
 import com.dyx.simpledb.backend.utils.Panic;
 import com.dyx.simpledb.backend.utils.Parser;
 import com.dyx.simpledb.common.Error;
 
+/**
+ * XID文件结构：
+ * [XidCounter] [FrozenXid] [Status(FrozenXid+1)] ... [Status(XidCounter)]
+ * XidCounter 8字节，已分配的最大XID
+ * FrozenXid  8字节，不大于它的事务均已冻结，视为已提交，其状态不再保存
+ * Status     每个事务1字节
+ *
+ * 运行时事务状态常驻内存（clog），每个事务2位，按页组织，启动时从XID文件整体载入，
+ * 状态查询不再访问文件。begin只在内存中分配XID；commit、abort先改内存，
+ * 落盘时先刷日志，再把一批状态和XidCounter写入XID文件，只刷盘一次（成组提交）。
+ * 崩溃时尚未落盘的事务在文件中仍为active，由恢复过程回滚。
+ */
 public class TransactionManagerImpl implements TransactionManager {
 
     // XID文件头长度
-    static final int LEN_XID_HEADER_LENGTH = 8;
+    static final int LEN_XID_HEADER_LENGTH = 16;
+    private static final int OF_FROZEN_XID = 8;
     // 每个事务的占用长度
     private static final int XID_FIELD_SIZE = 1;
 
@@ -26,23 +47,65 @@ public class TransactionManagerImpl implements TransactionManager {
     // 超级事务，永远为commited状态
     public static final long SUPER_XID = 0;
 
+    // 异步提交的默认持久化间隔，毫秒
+    public static final long DEFAULT_ASYNC_COMMIT_DELAY = 100;
+
+    // clog每页的long个数，每个long存放32个事务的状态
+    private static final int CLOG_PAGE_LONGS = 1 << 10;
+    private static final int XIDS_PER_PAGE = CLOG_PAGE_LONGS * 32;
+
     static final String XID_SUFFIX = ".xid";
-    
+
+    private File f;
     private RandomAccessFile file;
     private FileChannel fc;
-    private long xidCounter;
-    private Lock counterLock;
+    private volatile long xidCounter;
+    private volatile long frozenXid;
+    private Lock counterLock;   // 保护xidCounter、clog扩容和pending
 
-    TransactionManagerImpl(RandomAccessFile raf, FileChannel fc) {
+    // 内存中的事务状态表，pages[0]的第一个事务为base，base为XIDS_PER_PAGE的整数倍
+    private static class Clog {
+        final long base;
+        final AtomicLongArray[] pages;
+
+        Clog(long base, AtomicLongArray[] pages) {
+            this.base = base;
+            this.pages = pages;
+        }
+    }
+
+    private volatile Clog clog;
+
+    // 状态已在内存中变更、尚未写入XID文件的事务
+    private static final LongHashMap<Byte> NO_BATCH = new LongHashMap<>();
+    private LongHashMap<Byte> pending;
+    private LongHashMap<Byte> inflight; // 正在写入XID文件、尚未刷盘的一批
+    private long flushedCounter;    // 已落盘的XidCounter
+
+    private Lock flushLock;
+    private Runnable logFlusher;    // 事务状态落盘前，先将日志刷盘
+    private volatile long asyncCommitDelay = DEFAULT_ASYNC_COMMIT_DELAY;
+    private Thread flusher;
+    private volatile boolean closed;
+
+    TransactionManagerImpl(File f, RandomAccessFile raf, FileChannel fc) {
+        this.f = f;
         this.file = raf;
         this.fc = fc;
         counterLock = new ReentrantLock();
+        flushLock = new ReentrantLock();
+        pending = new LongHashMap<>();
+        inflight = NO_BATCH;
         checkXIDCounter();
+        clog = new Clog(frozenXid - frozenXid % XIDS_PER_PAGE, new AtomicLongArray[0]);
+        loadClog();
     }
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_FILE_HEADER中的xidcounter，根据它计算文件的理论长度，对比实际长度
+     * 读取XID_FILE_HEADER中的xidcounter，取它与文件长度推出的XID中较大者，避免重用已分配的XID
+     * 状态可能先于XidCounter落盘，文件中出现过的XID都视为已分配；
+     * XidCounter超出文件长度的部分视为active
      */
     private void checkXIDCounter() {
         long fileLen = 0;
@@ -57,111 +120,398 @@ public class TransactionManagerImpl implements TransactionManager {
 
         ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
         try {
-            fc.position(0);
-            fc.read(buf);
+            fc.read(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.xidCounter = Parser.parseLong(buf.array());
-        long end = getXidPosition(this.xidCounter + 1);
-        if(end != fileLen) {
+        long counter = Parser.getLong(buf.array(), 0);
+        this.frozenXid = Parser.getLong(buf.array(), OF_FROZEN_XID);
+        if(counter < frozenXid) {
             Panic.panic(Error.BadXIDFileException);
         }
+        long fileCounter = frozenXid + (fileLen - LEN_XID_HEADER_LENGTH) / XID_FIELD_SIZE;
+        this.xidCounter = Math.max(counter, fileCounter);
+        this.flushedCounter = counter;
+    }
+
+    // 将XID文件中的所有状态载入clog
+    private void loadClog() {
+        ensureClog(xidCounter);
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long xid = frozenXid + 1;
+        while(xid <= xidCounter) {
+            buf.clear();
+            int read = -1;
+            try {
+                read = fc.read(buf, getXidPosition(xid));
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            // 文件末尾之后的XID仍为active
+            if(read <= 0) {
+                break;
+            }
+            byte[] raw = buf.array();
+            for(int i = 0; i < buf.position() && xid <= xidCounter; i ++, xid ++) {
+                if(raw[i] != FIELD_TRAN_ACTIVE) {
+                    setStatus(xid, raw[i]);
+                }
+            }
+        }
     }
 
     // 根据事务xid取得其在xid文件中对应的位置
     private long getXidPosition(long xid) {
-        return LEN_XID_HEADER_LENGTH + (xid-1)*XID_FIELD_SIZE;
+        return LEN_XID_HEADER_LENGTH + (xid-frozenXid-1)*XID_FIELD_SIZE;
+    }
+
+    // 保证clog能容纳xid，调用者需持有counterLock或处于构造过程中
+    private void ensureClog(long xid) {
+        Clog old = clog;
+        int pages = (int)((xid - old.base) / XIDS_PER_PAGE) + 1;
+        if(pages <= old.pages.length) {
+            return;
+        }
+        AtomicLongArray[] grown = new AtomicLongArray[Math.max(pages, old.pages.length * 2)];
+        System.arraycopy(old.pages, 0, grown, 0, old.pages.length);
+        for(int i = old.pages.length; i < grown.length; i ++) {
+            grown[i] = new AtomicLongArray(CLOG_PAGE_LONGS);
+        }
+        clog = new Clog(old.base, grown);
     }
 
-    // 更新xid事务的状态为status
-    private void updateXID(long xid, byte status) {
+    // 从clog读取xid的状态，已冻结的事务视为已提交，超出clog范围的事务尚未结束
+    private byte getStatus(long xid) {
+        if(xid <= frozenXid) {
+            return FIELD_TRAN_COMMITTED;
+        }
+        Clog c = clog;
+        long rel = xid - c.base;
+        // 冻结时先推进frozenXid再替换clog，读到旧frozenXid和新clog时xid必已冻结
+        if(rel < 0) {
+            return FIELD_TRAN_COMMITTED;
+        }
+        int page = (int)(rel / XIDS_PER_PAGE);
+        if(page >= c.pages.length) {
+            return FIELD_TRAN_ACTIVE;
+        }
+        int idx = (int)(rel % XIDS_PER_PAGE);
+        long word = c.pages[page].get(idx >>> 5);
+        return (byte)((word >>> ((idx & 31) << 1)) & 3);
+    }
+
+    private void setStatus(long xid, byte status) {
+        Clog c = clog;
+        long rel = xid - c.base;
+        AtomicLongArray page = c.pages[(int)(rel / XIDS_PER_PAGE)];
+        int idx = (int)(rel % XIDS_PER_PAGE);
+        int shift = (idx & 31) << 1;
+        while(true) {
+            long word = page.get(idx >>> 5);
+            long updated = (word & ~(3L << shift)) | ((long)status << shift);
+            if(page.compareAndSet(idx >>> 5, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    // 写入xid事务的状态，不刷盘
+    private void writeXID(long xid, byte status) {
         long offset = getXidPosition(xid);
         byte[] tmp = new byte[XID_FIELD_SIZE];
         tmp[0] = status;
         ByteBuffer buf = ByteBuffer.wrap(tmp);
         try {
-            fc.position(offset);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        try {
-            fc.force(false);
+            fc.write(buf, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
 
-    // 将XID加一，并更新XID Header
-    private void incrXIDCounter() {
-        xidCounter ++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
+    // 写入XID Header，不刷盘
+    // 先将文件扩展到能容纳counter，补齐的状态为active，保证Header不会超出文件中的XID
+    private void writeXIDCounter(long counter) {
+        long end = getXidPosition(counter + 1);
         try {
-            fc.position(0);
-            fc.write(buf);
+            long size = fc.size();
+            if(size < end) {
+                fc.write(ByteBuffer.wrap(new byte[(int)(end - size)]), size);
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
+        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(counter));
         try {
-            fc.force(false);
+            fc.write(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
 
-    // 开始一个事务，并返回XID
+    // 开始一个事务，并返回XID，只在内存中分配
     public long begin() {
         counterLock.lock();
         try {
             long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
+            ensureClog(xid);
+            xidCounter = xid;
             return xid;
         } finally {
             counterLock.unlock();
         }
     }
 
-    // 提交XID事务
+    // 最近一次分配的XID，不分配新的XID
+    public long getXidCounter() {
+        return xidCounter;
+    }
+
+    // 提交XID事务，返回时提交状态已落盘
+    // 提交状态落盘后才在clog中可见，并发的提交会由同一次刷盘一并完成
     public void commit(long xid) {
-        updateXID(xid, FIELD_TRAN_COMMITTED);
+        counterLock.lock();
+        try {
+            pending.put(xid, FIELD_TRAN_COMMITTED);
+        } finally {
+            counterLock.unlock();
+        }
+        flushStatus(xid);
+    }
+
+    // 异步提交XID事务，提交状态立即在clog中可见，返回时不等待刷盘
+    public void commitAsync(long xid) {
+        counterLock.lock();
+        try {
+            setStatus(xid, FIELD_TRAN_COMMITTED);
+            pending.put(xid, FIELD_TRAN_COMMITTED);
+        } finally {
+            counterLock.unlock();
+        }
+        startFlusher();
     }
 
-    // 回滚XID事务
+    // 回滚XID事务，状态随下一次刷盘落盘
+    // 崩溃前未落盘的回滚，恢复时会再次由日志回滚
     public void abort(long xid) {
-        updateXID(xid, FIELD_TRAN_ABORTED);
+        counterLock.lock();
+        try {
+            // 恢复时回滚的事务可能超出已落盘的XidCounter
+            if(xid > xidCounter) {
+                ensureClog(xid);
+                xidCounter = xid;
+            }
+            setStatus(xid, FIELD_TRAN_ABORTED);
+            pending.put(xid, FIELD_TRAN_ABORTED);
+        } finally {
+            counterLock.unlock();
+        }
+        startFlusher();
     }
 
-    // 检测XID事务是否处于status状态
-    private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
+    // 持久化所有尚未落盘的事务状态
+    public void flushStatus() {
+        flushStatus(SUPER_XID);
+    }
+
+    // 先刷日志，再将一批事务状态和XidCounter写入XID文件，只刷盘一次
+    // 同步提交会顺带持久化之前的异步提交，后提交的事务不会比它依赖的事务更早落盘
+    private void flushStatus(long xid) {
+        flushLock.lock();
         try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+            // 等待期间已被其他线程一并刷盘
+            if(xid != SUPER_XID && getStatus(xid) == FIELD_TRAN_COMMITTED) {
+                return;
+            }
+            LongHashMap<Byte> batch;
+            long counter;
+            counterLock.lock();
+            try {
+                // 主动刷盘时即使没有状态变更，也要持久化新分配的XidCounter
+                if(pending.isEmpty() && (xid != SUPER_XID || xidCounter == flushedCounter)) {
+                    return;
+                }
+                batch = pending;
+                pending = new LongHashMap<>();
+                inflight = batch;
+                counter = xidCounter;
+            } finally {
+                counterLock.unlock();
+            }
+
+            if(logFlusher != null) {
+                logFlusher.run();
+            }
+            long[] xids = batch.keys();
+            for(long x : xids) {
+                writeXID(x, batch.get(x));
+            }
+            if(counter != flushedCounter) {
+                writeXIDCounter(counter);
+            }
+            try {
+                fc.force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            flushedCounter = counter;
+            counterLock.lock();
+            try {
+                inflight = NO_BATCH;
+            } finally {
+                counterLock.unlock();
+            }
+
+            for(long x : xids) {
+                if(batch.get(x) == FIELD_TRAN_COMMITTED) {
+                    setStatus(x, FIELD_TRAN_COMMITTED);
+                }
+            }
+        } finally {
+            flushLock.unlock();
         }
-        return buf.array()[0] == status;
+    }
+
+    // 冻结horizon之前的所有事务，并压缩XID文件
+    // 调用者需保证：这些事务均已结束，且数据中不再引用其中已回滚的事务，引用已提交事务的记录已冻结
+    // 冻结对数据的修改记录在日志中，先刷日志，再以临时文件替换的方式重写XID文件
+    public void truncate(long horizon) {
+        flushLock.lock();
+        try {
+            flushStatus();
+            long frozen = horizon - 1;
+            if(frozen <= frozenXid) {
+                return;
+            }
+            if(logFlusher != null) {
+                logFlusher.run();
+            }
+
+            // 复制期间阻塞commitAsync和abort，尚未落盘的状态仍写为active，由之后的flushStatus写入
+            long counter;
+            byte[] raw;
+            counterLock.lock();
+            try {
+                counter = xidCounter;
+                if(frozen > counter) {
+                    frozen = counter;
+                }
+                raw = new byte[LEN_XID_HEADER_LENGTH + (int)(counter - frozen) * XID_FIELD_SIZE];
+                Parser.putLong(raw, 0, counter);
+                Parser.putLong(raw, OF_FROZEN_XID, frozen);
+                for(long xid = frozen + 1; xid <= counter; xid ++) {
+                    if(!pending.containsKey(xid)) {
+                        raw[LEN_XID_HEADER_LENGTH + (int)(xid - frozen - 1)] = getStatus(xid);
+                    }
+                }
+            } finally {
+                counterLock.unlock();
+            }
+
+            File tmp = new File(f.getPath() + ".tmp");
+            try (RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw")) {
+                tmpFile.setLength(0);
+                tmpFile.write(raw);
+                tmpFile.getChannel().force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            try {
+                fc.close();
+                file.close();
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                file = new RandomAccessFile(f, "rw");
+                fc = file.getChannel();
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            flushedCounter = counter;
+
+            // 丢弃已冻结部分的clog页
+            frozenXid = frozen;
+            counterLock.lock();
+            try {
+                Clog old = clog;
+                long base = frozen - frozen % XIDS_PER_PAGE;
+                int drop = (int)Math.min((base - old.base) / XIDS_PER_PAGE, old.pages.length);
+                clog = new Clog(old.base + (long)drop * XIDS_PER_PAGE, Arrays.copyOfRange(old.pages, drop, old.pages.length));
+            } finally {
+                counterLock.unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public void setLogFlusher(Runnable logFlusher) {
+        this.logFlusher = logFlusher;
+    }
+
+    public void setAsyncCommitDelay(long millis) {
+        this.asyncCommitDelay = millis;
+    }
+
+    // 第一次异步提交或回滚时启动后台刷盘线程
+    // 不使用interrupt唤醒，避免中断正在进行的FileChannel读写导致通道被关闭
+    private synchronized void startFlusher() {
+        if(flusher != null || closed) {
+            return;
+        }
+        flusher = new Thread(() -> {
+            while(!closed) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(asyncCommitDelay));
+                if(!closed) {
+                    flushStatus();
+                }
+            }
+        }, "xid-status-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
     }
 
     public boolean isActive(long xid) {
         if(xid == SUPER_XID) return false;
-        return checkXID(xid, FIELD_TRAN_ACTIVE);
+        return getStatus(xid) == FIELD_TRAN_ACTIVE;
     }
 
     public boolean isCommitted(long xid) {
         if(xid == SUPER_XID) return true;
-        return checkXID(xid, FIELD_TRAN_COMMITTED);
+        return getStatus(xid) == FIELD_TRAN_COMMITTED;
+    }
+
+    // 提交状态是否已写入XID文件，异步提交在落盘前返回false
+    public boolean isCommitPersisted(long xid) {
+        if(xid == SUPER_XID) return true;
+        if(getStatus(xid) != FIELD_TRAN_COMMITTED) {
+            return false;
+        }
+        counterLock.lock();
+        try {
+            return !pending.containsKey(xid) && !inflight.containsKey(xid);
+        } finally {
+            counterLock.unlock();
+        }
     }
 
     public boolean isAborted(long xid) {
         if(xid == SUPER_XID) return false;
-        return checkXID(xid, FIELD_TRAN_ABORTED);
+        return getStatus(xid) == FIELD_TRAN_ABORTED;
     }
 
     public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = flusher;
+        }
+        if(t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+        flushStatus();
         try {
             fc.close();
             file.close();
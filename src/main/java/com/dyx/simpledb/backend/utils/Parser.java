@@ -1,60 +1,118 @@
 package com.dyx.simpledb.backend.utils;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 import com.google.common.primitives.Bytes;
 
 public class Parser {
 
+    // 以下按偏移直接读写byte[]，不复制子数组、不分配ByteBuffer，字节序与ByteBuffer默认的大端一致
+
+    public static short getShort(byte[] buf, int off) {
+        return (short)((buf[off] << 8) | (buf[off+1] & 0xff));
+    }
+
+    public static void putShort(byte[] buf, int off, short value) {
+        buf[off] = (byte)(value >>> 8);
+        buf[off+1] = (byte)value;
+    }
+
+    public static int getInt(byte[] buf, int off) {
+        return (buf[off] << 24)
+                | ((buf[off+1] & 0xff) << 16)
+                | ((buf[off+2] & 0xff) << 8)
+                | (buf[off+3] & 0xff);
+    }
+
+    public static void putInt(byte[] buf, int off, int value) {
+        buf[off] = (byte)(value >>> 24);
+        buf[off+1] = (byte)(value >>> 16);
+        buf[off+2] = (byte)(value >>> 8);
+        buf[off+3] = (byte)value;
+    }
+
+    public static long getLong(byte[] buf, int off) {
+        return ((long)getInt(buf, off) << 32) | (getInt(buf, off+4) & 0xffffffffL);
+    }
+
+    public static void putLong(byte[] buf, int off, long value) {
+        putInt(buf, off, (int)(value >>> 32));
+        putInt(buf, off+4, (int)value);
+    }
+
+    public static float getFloat(byte[] buf, int off) {
+        return Float.intBitsToFloat(getInt(buf, off));
+    }
+
+    public static void putFloat(byte[] buf, int off, float value) {
+        putInt(buf, off, Float.floatToRawIntBits(value));
+    }
+
+    public static double getDouble(byte[] buf, int off) {
+        return Double.longBitsToDouble(getLong(buf, off));
+    }
+
+    public static void putDouble(byte[] buf, int off, double value) {
+        putLong(buf, off, Double.doubleToRawLongBits(value));
+    }
+
     public static byte[] short2Byte(short value) {
-        return ByteBuffer.allocate(Short.SIZE / Byte.SIZE).putShort(value).array();
+        byte[] buf = new byte[2];
+        putShort(buf, 0, value);
+        return buf;
     }
 
     public static short parseShort(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 2);
-        return buffer.getShort();
+        return getShort(buf, 0);
     }
 
     public static byte[] int2Byte(int value) {
-        return ByteBuffer.allocate(Integer.SIZE / Byte.SIZE).putInt(value).array();
+        byte[] buf = new byte[4];
+        putInt(buf, 0, value);
+        return buf;
     }
 
     public static int parseInt(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 4);
-        return buffer.getInt();
+        return getInt(buf, 0);
     }
 
     public static float parseFloat(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 4);
-        return buffer.getFloat();
+        return getFloat(buf, 0);
     }
 
     public static long parseLong(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 8);
-        return buffer.getLong();
+        return getLong(buf, 0);
     }
 
     public static double parseDouble(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 8);
-        return buffer.getDouble();
+        return getDouble(buf, 0);
     }
 
     public static byte[] long2Byte(long value) {
-        return ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(value).array();
+        byte[] buf = new byte[8];
+        putLong(buf, 0, value);
+        return buf;
     }
 
     public static byte[] double2Byte(double value) {
-        return ByteBuffer.allocate(Double.SIZE / Byte.SIZE).putDouble(value).array();
+        byte[] buf = new byte[8];
+        putDouble(buf, 0, value);
+        return buf;
     }
 
     public static byte[] float2Byte(float value) {
-        return ByteBuffer.allocate(Float.SIZE / Byte.SIZE).putFloat(value).array();
+        byte[] buf = new byte[4];
+        putFloat(buf, 0, value);
+        return buf;
     }
 
     public static ParseStringRes parseString(byte[] raw) {
-        int length = parseInt(Arrays.copyOf(raw, 4));
-        String str = new String(Arrays.copyOfRange(raw, 4, 4+length));
+        return parseString(raw, 0);
+    }
+
+    // next为字符串占用的字节数，不含offset
+    public static ParseStringRes parseString(byte[] raw, int offset) {
+        int length = getInt(raw, offset);
+        String str = new String(raw, offset+4, length);
         return new ParseStringRes(str, length+4);
     }
 
@@ -1,7 +1,6 @@
 package com.dyx.simpledb.backend.utils;
 
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
 
 public class Types {
     public static long addressToUid(int pgno, short offset) {
@@ -33,8 +32,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseInt(Arrays.copyOf(raw, 4));
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.getInt(raw, offset);
             }
 
             @Override
@@ -69,8 +68,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseString(raw);
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.parseString(raw, offset);
             }
 
             @Override
@@ -114,8 +113,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return java.time.LocalDateTime.ofEpochSecond(Parser.parseLong(Arrays.copyOf(raw, 8)), 0, java.time.ZoneOffset.UTC);
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return java.time.LocalDateTime.ofEpochSecond(Parser.getLong(raw, offset), 0, java.time.ZoneOffset.UTC);
             }
 
             @Override
@@ -150,8 +149,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseFloat(Arrays.copyOf(raw, 4));
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.getFloat(raw, offset);
             }
 
             @Override
@@ -186,8 +185,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseLong(Arrays.copyOf(raw, 8));
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.getLong(raw, offset);
             }
 
             @Override
@@ -222,8 +221,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseString(raw);
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.parseString(raw, offset);
             }
 
             @Override
@@ -258,8 +257,8 @@ public class Types {
             }
 
             @Override
-            public Object parseValueFromBytes(byte[] raw) {
-                return Parser.parseDouble(Arrays.copyOf(raw, 8));
+            public Object parseValueFromBytes(byte[] raw, int offset) {
+                return Parser.getDouble(raw, offset);
             }
 
             @Override
@@ -309,7 +308,12 @@ public class Types {
 
         public abstract String printValue(Object v);
 
-        public abstract Object parseValueFromBytes(byte[] raw);
+        public Object parseValueFromBytes(byte[] raw) {
+            return parseValueFromBytes(raw, 0);
+        }
+
+        // 从raw的offset处解析值，不复制子数组
+        public abstract Object parseValueFromBytes(byte[] raw, int offset);
 
         public abstract int getShift(Object parsedValue);
 
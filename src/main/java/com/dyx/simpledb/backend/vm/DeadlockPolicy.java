@@ -0,0 +1,14 @@
+package com.dyx.simpledb.backend.vm;
+
+/**
+ * 记录锁冲突时的死锁处理策略，事务的新旧按开始顺序判断，XID越小越老
+ * 只读事务的虚拟XID不参与比较，按它开始时尚未分配的最小XID排在已开始的事务之后
+ * DETECT：直接等待，沿等待链检测到环时回滚请求者
+ * WAIT_DIE：请求者比持有者和排在前面的等待者都老时才等待，否则立即回滚
+ * WOUND_WAIT：请求者回滚（wound）比它年轻的持有者和等待者，然后等待
+ */
+public enum DeadlockPolicy {
+    DETECT,
+    WAIT_DIE,
+    WOUND_WAIT
+}
@@ -6,22 +6,40 @@ import com.google.common.primitives.Bytes;
 
 import com.dyx.simpledb.backend.common.SubArray;
 import com.dyx.simpledb.backend.dm.dataItem.DataItem;
+import com.dyx.simpledb.backend.tm.TransactionManager;
+import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
 import com.dyx.simpledb.backend.utils.Parser;
 
 /**
  * VM向上层抽象出entry
  * entry结构：
- * [XMIN] [XMAX] [data]
+ * [XMIN] [XMAX] [HINT] [PREV] [NEXT] [data]
+ * HINT 1字节，缓存xmin、xmax的提交/回滚状态，由读者首次查询TM后设置，不记日志
+ * PREV 8字节，原地更新前旧版本所在undo记录的uid，0表示没有更早的版本
+ * undo记录同样是entry，其XMAX为覆盖它的更新事务，沿PREV可找到每个事务应看到的版本
+ * 原地更新后的data可能短于记录的空间，末尾以0填充
+ * NEXT 8字节，放不下的更新（HOT更新）写入的新版本的uid，此时XMAX为该更新事务
+ * 索引只指向链头，链上的后续版本都不在索引中
  */
 public class Entry {
 
     private static final int OF_XMIN = 0;
     private static final int OF_XMAX = OF_XMIN+8;
-    private static final int OF_DATA = OF_XMAX+8;
+    private static final int OF_HINT = OF_XMAX+8;
+    private static final int OF_PREV = OF_HINT+1;
+    private static final int OF_NEXT = OF_PREV+8;
+    private static final int OF_DATA = OF_NEXT+8;
+
+    private static final byte HINT_XMIN_COMMITTED = 1;
+    private static final byte HINT_XMIN_ABORTED = 1 << 1;
+    private static final byte HINT_XMAX_COMMITTED = 1 << 2;
+    private static final byte HINT_XMAX_ABORTED = 1 << 3;
+    private static final byte HINT_XMAX_MASK = HINT_XMAX_COMMITTED | HINT_XMAX_ABORTED;
 
     private long uid;
     private DataItem dataItem;
     private VersionManager vm;
+    private byte[] pinned;  // 非空时为某一时刻整条entry的拷贝，读取内容时不再访问dataItem
 
     public static Entry newEntry(VersionManager vm, DataItem dataItem, long uid) {
         if (dataItem == null) {
@@ -42,7 +60,59 @@ public class Entry {
     public static byte[] wrapEntryRaw(long xid, byte[] data) {
         byte[] xmin = Parser.long2Byte(xid);
         byte[] xmax = new byte[8];
-        return Bytes.concat(xmin, xmax, data);
+        byte[] hint = new byte[1];
+        byte[] prev = new byte[8];
+        byte[] next = new byte[8];
+        return Bytes.concat(xmin, xmax, hint, prev, next, data);
+    }
+
+    // 原地更新可能同时改写xmin、data和prev，读者需在同一时刻取得它们
+    // 返回的entry共享缓存引用，由原entry负责释放
+    public Entry pin() {
+        Entry entry = new Entry();
+        entry.uid = uid;
+        entry.dataItem = dataItem;
+        entry.vm = vm;
+        entry.pinned = copy(0, size());
+        return entry;
+    }
+
+    // entry中[from, to)的拷贝：先乐观读，期间有写入时再加读锁重读
+    private byte[] copy(int from, int to) {
+        SubArray sa = dataItem.data();
+        long stamp = dataItem.tryOptimisticRead();
+        byte[] res = Arrays.copyOfRange(sa.raw, sa.start+from, sa.start+to);
+        if(dataItem.validate(stamp)) {
+            return res;
+        }
+        dataItem.rLock();
+        try {
+            return Arrays.copyOfRange(sa.raw, sa.start+from, sa.start+to);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+    // 原地读取offset处的8字节字段，同copy先乐观读
+    private long readLong(int offset) {
+        SubArray sa = dataItem.data();
+        long stamp = dataItem.tryOptimisticRead();
+        long value = Parser.getLong(sa.raw, sa.start+offset);
+        if(dataItem.validate(stamp)) {
+            return value;
+        }
+        dataItem.rLock();
+        try {
+            return Parser.getLong(sa.raw, sa.start+offset);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+    // 整条entry的字节数
+    int size() {
+        SubArray sa = dataItem.data();
+        return sa.end - sa.start;
     }
 
     public void release() {
@@ -53,36 +123,186 @@ public class Entry {
         dataItem.release();
     }
 
+    // 底层的数据项是否仍有效，失效后不应再从缓存中返回
+    public boolean isValid() {
+        return dataItem.isValid();
+    }
+
     // 以拷贝的形式返回内容
     public byte[] data() {
+        if(pinned != null) {
+            return Arrays.copyOfRange(pinned, OF_DATA, pinned.length);
+        }
+        return copy(OF_DATA, size());
+    }
+
+    public long getXmin() {
+        if(pinned != null) {
+            return Parser.getLong(pinned, OF_XMIN);
+        }
+        return readLong(OF_XMIN);
+    }
+
+    public long getXmax() {
+        if(pinned != null) {
+            return Parser.getLong(pinned, OF_XMAX);
+        }
+        return readLong(OF_XMAX);
+    }
+
+    public long getPrev() {
+        if(pinned != null) {
+            return Parser.getLong(pinned, OF_PREV);
+        }
+        return readLong(OF_PREV);
+    }
+
+    public long getNext() {
+        if(pinned != null) {
+            return Parser.getLong(pinned, OF_NEXT);
+        }
+        return readLong(OF_NEXT);
+    }
+
+    // 可原地写入的data最大长度
+    public int capacity() {
+        SubArray sa = dataItem.data();
+        return sa.end - sa.start - OF_DATA;
+    }
+
+    // 当前版本被xid覆盖前的undo记录：内容不变，xmax为xid
+    public byte[] undoRaw(long xid) {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            byte[] data = new byte[sa.end - sa.start - OF_DATA];
-            System.arraycopy(sa.raw, sa.start+OF_DATA, data, 0, data.length);
-            return data;
+            byte[] raw = Arrays.copyOfRange(sa.raw, sa.start, sa.end);
+            Parser.putLong(raw, OF_XMAX, xid);
+            raw[OF_HINT] &= ~HINT_XMAX_MASK;
+            return raw;
         } finally {
             dataItem.rUnLock();
         }
     }
 
-    public long getXmin() {
-        dataItem.rLock();
+    // 原地写入xid的新版本，旧版本已保存在prev指向的undo记录中
+    public void update(long xid, byte[] data, long prev) {
+        dataItem.before();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMIN, sa.start+OF_XMAX));
+            Parser.putLong(sa.raw, sa.start+OF_XMIN, xid);
+            Parser.putLong(sa.raw, sa.start+OF_XMAX, TransactionManagerImpl.SUPER_XID);
+            sa.raw[sa.start+OF_HINT] = 0;
+            Parser.putLong(sa.raw, sa.start+OF_PREV, prev);
+            writeData(sa, data);
         } finally {
-            dataItem.rUnLock();
+            dataItem.after(xid);
         }
     }
 
-    public long getXmax() {
-        dataItem.rLock();
+    // 覆盖本事务自己写入的版本，不需要新的undo记录
+    public void overwrite(long xid, byte[] data) {
+        dataItem.before();
+        try {
+            writeData(dataItem.data(), data);
+        } finally {
+            dataItem.after(xid);
+        }
+    }
+
+    private void writeData(SubArray sa, byte[] data) {
+        int start = sa.start + OF_DATA;
+        System.arraycopy(data, 0, sa.raw, start, data.length);
+        Arrays.fill(sa.raw, start + data.length, sa.end, (byte) 0);
+    }
+
+    // xid回滚时用undo记录恢复被它原地更新前的版本，以xid的名义记日志，崩溃恢复时随之重做或撤销
+    public void restore(long xid, Entry undo) {
+        byte[] old = undo.pin().pinned;
+        dataItem.before();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMAX, sa.start+OF_DATA));
+            System.arraycopy(old, 0, sa.raw, sa.start, OF_DATA);
+            Parser.putLong(sa.raw, sa.start+OF_XMAX, TransactionManagerImpl.SUPER_XID);
+            sa.raw[sa.start+OF_HINT] &= ~HINT_XMAX_MASK;
+            writeData(sa, Arrays.copyOfRange(old, OF_DATA, old.length));
         } finally {
-            dataItem.rUnLock();
+            dataItem.after(xid);
+        }
+    }
+
+    // 版本链仍以prev开头时将其断开，返回是否断开
+    public boolean clearPrev(long prev) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            if(Parser.getLong(sa.raw, sa.start+OF_PREV) != prev) {
+                return false;
+            }
+            dataItem.before();
+            try {
+                Arrays.fill(sa.raw, sa.start+OF_PREV, sa.start+OF_NEXT, (byte) 0);
+            } finally {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            }
+            return true;
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
+    // HOT更新：xid结束当前版本，新版本位于next
+    public void link(long xid, long next) {
+        dataItem.before();
+        try {
+            SubArray sa = dataItem.data();
+            Parser.putLong(sa.raw, sa.start+OF_XMAX, xid);
+            sa.raw[sa.start+OF_HINT] &= ~HINT_XMAX_MASK;
+            Parser.putLong(sa.raw, sa.start+OF_NEXT, next);
+        } finally {
+            dataItem.after(xid);
+        }
+    }
+
+    // xid回滚时撤销它的HOT更新，当前版本重新成为链尾
+    public void unlink(long xid) {
+        dataItem.before();
+        try {
+            SubArray sa = dataItem.data();
+            Arrays.fill(sa.raw, sa.start+OF_XMAX, sa.start+OF_HINT, (byte) 0);
+            sa.raw[sa.start+OF_HINT] &= ~HINT_XMAX_MASK;
+            Arrays.fill(sa.raw, sa.start+OF_NEXT, sa.start+OF_DATA, (byte) 0);
+        } finally {
+            dataItem.after(xid);
+        }
+    }
+
+    // 后继仍为expected时改为next，用于跳过链上已死的版本，返回是否修改
+    public boolean replaceNext(long expected, long next) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            if(Parser.getLong(sa.raw, sa.start+OF_NEXT) != expected) {
+                return false;
+            }
+            dataItem.before();
+            try {
+                Parser.putLong(sa.raw, sa.start+OF_NEXT, next);
+            } finally {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            }
+            return true;
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
+    // 将记录置为无效，用于清理不再需要的undo记录
+    public void invalidate(long xid) {
+        dataItem.before();
+        try {
+            DataItem.setDataItemRawInvalid(dataItem.getRaw());
+        } finally {
+            dataItem.after(xid);
         }
     }
 
@@ -90,12 +310,121 @@ public class Entry {
         dataItem.before();
         try {
             SubArray sa = dataItem.data();
-            System.arraycopy(Parser.long2Byte(xid), 0, sa.raw, sa.start+OF_XMAX, 8);
+            Parser.putLong(sa.raw, sa.start+OF_XMAX, xid);
+            sa.raw[sa.start+OF_HINT] &= ~HINT_XMAX_MASK;
         } finally {
             dataItem.after(xid);
         }
     }
 
+    // xmin是否已提交，提示位命中时不再访问TM
+    public boolean isXminCommitted(TransactionManager tm, long xmin) {
+        return isCommitted(tm, xmin, OF_XMIN, HINT_XMIN_COMMITTED, HINT_XMIN_ABORTED);
+    }
+
+    // xmax是否已提交，提示位命中时不再访问TM
+    public boolean isXmaxCommitted(TransactionManager tm, long xmax) {
+        return isCommitted(tm, xmax, OF_XMAX, HINT_XMAX_COMMITTED, HINT_XMAX_ABORTED);
+    }
+
+    private boolean isCommitted(TransactionManager tm, long xid, int offset, byte committed, byte aborted) {
+        if(xid == TransactionManagerImpl.SUPER_XID) {
+            return true;
+        }
+        byte hint = readHint(xid, offset);
+        if((hint & committed) != 0) {
+            return true;
+        }
+        if((hint & aborted) != 0) {
+            return false;
+        }
+        if(tm.isCommitted(xid)) {
+            // 异步提交落盘前不设置提示位，避免崩溃后提示位与XID文件不一致
+            if(tm.isCommitPersisted(xid)) {
+                setHint(xid, offset, committed);
+            }
+            return true;
+        }
+        // 未落盘的回滚在恢复时仍会被回滚，可以直接设置
+        if(tm.isAborted(xid)) {
+            setHint(xid, offset, aborted);
+        }
+        return false;
+    }
+
+    // 读取提示位，字段已被改写为其他XID时提示位不适用
+    private byte readHint(long xid, int offset) {
+        SubArray sa = dataItem.data();
+        long stamp = dataItem.tryOptimisticRead();
+        long field = Parser.getLong(sa.raw, sa.start+offset);
+        byte hint = sa.raw[sa.start+OF_HINT];
+        if(!dataItem.validate(stamp)) {
+            dataItem.rLock();
+            try {
+                field = Parser.getLong(sa.raw, sa.start+offset);
+                hint = sa.raw[sa.start+OF_HINT];
+            } finally {
+                dataItem.rUnLock();
+            }
+        }
+        return field == xid ? hint : 0;
+    }
+
+    // 提示位可以随时丢失，只标记页面为脏，不记日志
+    private void setHint(long xid, int offset, byte bit) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            if(Parser.getLong(sa.raw, sa.start+offset) != xid) {
+                return;
+            }
+            sa.raw[sa.start+OF_HINT] |= bit;
+            dataItem.page().setDirty(true);
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
+    // 冻结horizon之前的事务在该记录上留下的XID，返回是否修改了该记录
+    // xmin已回滚或xmax已提交的记录对所有事务都不可见，直接置为无效
+    // 否则已提交的xmin改为SUPER_XID，已回滚的xmax清零
+    // 有后继版本的记录仍是HOT链的一部分，只冻结xmin，由VM决定整条链的清理
+    public boolean freeze(TransactionManager tm, long horizon) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            long xmin = Parser.getLong(sa.raw, sa.start+OF_XMIN);
+            long xmax = Parser.getLong(sa.raw, sa.start+OF_XMAX);
+            long next = Parser.getLong(sa.raw, sa.start+OF_NEXT);
+            boolean freezeXmin = xmin != TransactionManagerImpl.SUPER_XID && xmin < horizon;
+            boolean freezeXmax = next == 0 && xmax != TransactionManagerImpl.SUPER_XID && xmax < horizon;
+            if(!freezeXmin && !freezeXmax) {
+                return false;
+            }
+            boolean dead = (freezeXmin && tm.isAborted(xmin)) || (freezeXmax && tm.isCommitted(xmax));
+
+            dataItem.before();
+            try {
+                if(dead) {
+                    DataItem.setDataItemRawInvalid(dataItem.getRaw());
+                } else {
+                    if(freezeXmin) {
+                        Parser.putLong(sa.raw, sa.start+OF_XMIN, TransactionManagerImpl.SUPER_XID);
+                    }
+                    if(freezeXmax) {
+                        Parser.putLong(sa.raw, sa.start+OF_XMAX, TransactionManagerImpl.SUPER_XID);
+                    }
+                    sa.raw[sa.start+OF_HINT] = 0;
+                }
+            } finally {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            }
+            return true;
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
     public long getUid() {
         return uid;
     }
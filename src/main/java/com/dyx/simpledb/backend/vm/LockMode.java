@@ -0,0 +1,41 @@
+package com.dyx.simpledb.backend.vm;
+
+/**
+ * 锁模式，记录锁和表的元数据锁使用S/X，表锁另有意向锁IS/IX：
+ * 事务在表中的记录上加S锁前需持有表的IS锁，加X锁前需持有表的IX锁
+ * 相容矩阵：IS与X以外的模式相容，IX与IS、IX相容，S与IS、S相容，X与任何模式都不相容
+ */
+public enum LockMode {
+    INTENTION_SHARED,
+    INTENTION_EXCLUSIVE,
+    SHARED,
+    EXCLUSIVE;
+
+    private static final boolean[][] COMPATIBLE = {
+            // IS     IX     S      X
+            {true,  true,  true,  false},   // IS
+            {true,  true,  false, false},   // IX
+            {true,  false, true,  false},   // S
+            {false, false, false, false},   // X
+    };
+
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    // 同一事务同时持有两种锁时等价的单一模式，IX与S的组合按X处理
+    public LockMode join(LockMode other) {
+        if(this == other || other == INTENTION_SHARED) {
+            return this;
+        }
+        if(this == INTENTION_SHARED) {
+            return other;
+        }
+        return EXCLUSIVE;
+    }
+
+    // 持有本模式即可满足other的请求
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+}
@@ -1,245 +1,543 @@
 package com.dyx.simpledb.backend.vm;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongUnaryOperator;
 
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
+import com.dyx.simpledb.backend.common.LongQueue;
+import com.dyx.simpledb.backend.common.TimingWheel;
 import com.dyx.simpledb.common.Error;
 
+/**
+ * 记录锁和表锁，模式及相容关系见LockMode；表锁以表的uid为资源，与记录锁共用等待图
+ * 表的元数据锁（S/X）是另一个资源，见metadataResource：所有语句共享持有，删除表时排他持有
+ * 资源按uid哈希到若干分段，无竞争的加锁只持有所在分段的锁
+ * 需要等待时才进入慢路径：在graphLock下登记等待，并从新等待边出发检测死锁
+ * 等待队列按FIFO授予，队首相容的请求一并授予；锁升级排在队首，避免与后来的排他请求互相等待
+ * WAIT_DIE和WOUND_WAIT策略按事务新旧决定等待或回滚，不需要检测等待图
+ */
 public class LockTable {
 
-    private Map<Long, List<Long>> x2u;  // 某个XID已获得的资源UID列表
-    private Map<Long, Long> u2x;        // UID被某个XID持有
-    private Map<Long, List<Long>> wait; // 正在等待UID的XID列表
-    private Map<Long, Lock> waitLock;   // 正在等待资源的XID的锁
-    private Map<Long, Long> waitU;      // XID正在等待的UID
-    private Lock lock;
-    private Map<Long, Long> waitStartTime;  // 记录每个XID进入等待状态的时间
-    private static final int CHECK_INTERVAL_MS = 1000; // 检查间隔（0.6秒）
-    private static final int TIMEOUT_THRESHOLD_MS = 30000; // 超时时间阈值（30秒）
+    private static final int STRIPES = 64;
+    private static final int TIMEOUT_THRESHOLD_MS = 30000; // 默认锁等待超时（30秒）
+    private static final long[] NO_XIDS = new long[0];
+    private static final LockMode[] MODES = LockMode.values();
 
+    // 单个资源的持有者及其模式，以及等待队列
+    // 持有者按xid登记，另按模式计数，相容判断不需要遍历持有者
+    private static class Resource {
+        final LongHashMap<LockMode> holders = new LongHashMap<>();
+        final int[] counts = new int[MODES.length];
+        LongQueue waiters = new LongQueue();
 
-    public LockTable() {
-        x2u = new HashMap<>();
-        u2x = new HashMap<>();
-        wait = new HashMap<>();
-        waitLock = new HashMap<>();
-        waitU = new HashMap<>();
-        lock = new ReentrantLock();
-        waitStartTime = new HashMap<>();
-        startTimeoutDeadlockChecker();
-    }
-
-    // 尝试获取资源，如需等待则检测死锁并处理
-    public Lock add(long xid, long uid) throws Exception {
-        lock.lock();
-        try {
-            if (isInList(x2u, xid, uid)) {
-                return null; // 已拥有资源
-            }
-            if (!u2x.containsKey(uid)) { // 资源未被占用
-                u2x.put(uid, xid);
-                putIntoList(x2u, xid, uid);
-                return null;
-            }
-            waitU.put(xid, uid); // 资源被占用，进入等待
-            putIntoList(wait, uid, xid);
-            waitStartTime.put(xid, System.currentTimeMillis());
+        LockMode modeOf(long xid) {
+            return holders.get(xid);
+        }
 
-            // 仅在等待链长度达到阈值时才触发死锁检测
-            if (hasDeadLock()) {
-                waitU.remove(xid);
-                removeFromList(wait, uid, xid);
-                throw Error.DeadlockException;
+        // 新增持有者，或将已有持有者的模式改为mode
+        void set(long xid, LockMode mode) {
+            LockMode old = holders.put(xid, mode);
+            if(old != null) {
+                counts[old.ordinal()] --;
             }
+            counts[mode.ordinal()] ++;
+        }
 
-            Lock l = new ReentrantLock();
-            l.lock();
-            waitLock.put(xid, l);
-            return l;
+        void remove(long xid) {
+            LockMode old = holders.remove(xid);
+            if(old != null) {
+                counts[old.ordinal()] --;
+            }
+        }
 
-        } finally {
-            lock.unlock();
+        boolean isFree() {
+            return holders.isEmpty();
         }
-    }
 
-    public void remove(long xid) {
-        lock.lock();
-        try {
-            List<Long> l = x2u.get(xid);
-            if (l != null) {
-                while (l.size() > 0) {
-                    Long uid = l.remove(0);
-                    selectNewXID(uid); // 重新分配资源
+        // xid以mode加锁与其他持有者相容
+        boolean compatible(long xid, LockMode mode) {
+            LockMode own = holders.get(xid);
+            for(LockMode m : MODES) {
+                int n = counts[m.ordinal()] - (m == own ? 1 : 0);
+                if(n > 0 && !m.isCompatibleWith(mode)) {
+                    return false;
                 }
             }
-            waitU.remove(xid);
-            x2u.remove(xid);
-            waitLock.remove(xid);
-        } finally {
-            lock.unlock();
+            return true;
         }
     }
 
-    // 从等待队列中选择一个xid来占用uid
-    private void selectNewXID(long uid) {
-        u2x.remove(uid);
-        List<Long> l = wait.get(uid);
-        if (l == null) return;
-        assert l.size() > 0;
+    private static class Stripe {
+        final Lock lock = new ReentrantLock();
+        final LongHashMap<Resource> resources = new LongHashMap<>();
+    }
 
-        while (l.size() > 0) {
-            long xid = l.remove(0);
-            if (!waitLock.containsKey(xid)) {
-                continue;
-            } else {
-                u2x.put(uid, xid);
-                Lock lo = waitLock.remove(xid);
-                waitU.remove(xid);
-                lo.unlock(); // 解锁等待事务
-                break;
-            }
+    // 事务持有的资源和正在进行的等待
+    private static class XidLocks {
+        final long age;     // 事务的新旧，越小越老
+        long[] held = new long[4];
+        int size;
+        Waiter waiter;      // 非空时事务正在以waitMode等待waitU
+        long waitU;
+        LockMode waitMode;
+        boolean wounded;    // 已被更老的事务回滚，不能再等待
+
+        XidLocks(long age) {
+            this.age = age;
         }
 
-        if (l.size() == 0) wait.remove(uid);
+        synchronized void add(long uid) {
+            if(size == held.length) {
+                held = Arrays.copyOf(held, size << 1);
+            }
+            held[size ++] = uid;
+        }
     }
 
-    private Map<Long, Integer> xidStamp;
-    private Map<Long, Boolean> pathCache; // 路径缓存
-    private int stamp;
+    private final Stripe[] stripes;
+    private final Map<Long, XidLocks> xids;
+    // 等待图的变化（登记或撤销等待、有等待者的资源授予）都在graphLock下进行
+    private final Lock graphLock;
+    private volatile long lockWaitTimeout = TIMEOUT_THRESHOLD_MS;
+    private volatile DeadlockPolicy policy = DeadlockPolicy.DETECT;
+    private LongConsumer woundHandler;  // 通知上层回滚被wound的事务
+    private LongUnaryOperator ageOf = xid -> xid;   // 由上层给出事务的新旧，默认按XID
 
-    // 死锁检测，使用DFS
-    private boolean hasDeadLock() {
-        xidStamp = new HashMap<>();
-        pathCache = new HashMap<>();
-        stamp = 1;
-        for (long xid : x2u.keySet()) {
-            if (xidStamp.getOrDefault(xid, 0) > 0) continue;
-            stamp++;
-            if (dfs(xid)) return true;
+    public LockTable() {
+        stripes = new Stripe[STRIPES];
+        for(int i = 0; i < STRIPES; i ++) {
+            stripes[i] = new Stripe();
         }
-        return false;
+        xids = new ConcurrentHashMap<>();
+        graphLock = new ReentrantLock();
     }
 
-    private boolean dfs(long xid) {
-        // 如果路径缓存中已经有结果，直接返回缓存的值
-        if (pathCache.containsKey(xid)) {
-            return pathCache.get(xid);
-        }
+    public void setLockWaitTimeout(long millis) {
+        this.lockWaitTimeout = millis;
+    }
 
-        Integer stp = xidStamp.get(xid);
-        if (stp != null && stp == stamp) {
-            pathCache.put(xid, true);  // 更新路径缓存
-            return true;
-        }
-        if (stp != null && stp < stamp) {
-            pathCache.put(xid, false);  // 更新路径缓存
-            return false;
-        }
-        xidStamp.put(xid, stamp);
+    public void setPolicy(DeadlockPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void setWoundHandler(LongConsumer woundHandler) {
+        this.woundHandler = woundHandler;
+    }
 
-        Long uid = waitU.get(xid);
-        if (uid == null) {
-            pathCache.put(xid, false);  // 更新路径缓存
-            return false;
+    // 事务首次加锁时据此记录它的新旧，只读事务的虚拟XID不能直接比较
+    public void setAgeFunction(LongUnaryOperator ageOf) {
+        this.ageOf = ageOf;
+    }
+
+    // 表的元数据锁对应的资源，与记录和表的uid不会重合
+    public static long metadataResource(long tableUid) {
+        return tableUid | Long.MIN_VALUE;
+    }
+
+    public Waiter add(long xid, long uid) throws Exception {
+        return add(xid, uid, LockMode.EXCLUSIVE);
+    }
+
+    // 尝试以mode获取资源，成功返回null；需要等待时返回一个Waiter，调用其await()阻塞直到获得资源
+    // 已持有该资源时按两种模式的组合升级；等待期间因超时等原因被放弃时，await()抛出对应的异常
+    public Waiter add(long xid, long uid, LockMode mode) throws Exception {
+        Stripe s = stripe(uid);
+        s.lock.lock();
+        try {
+            Resource r = s.resources.get(uid);
+            if(r == null) {
+                r = new Resource();
+                s.resources.put(uid, r);
+                grant(r, xid, uid, mode);
+                return null;
+            }
+            LockMode held = r.modeOf(xid);
+            if(held != null && held.covers(mode)) {
+                return null; // 已拥有资源
+            }
+            // 有人排队时新请求不能插队，锁升级除外
+            LockMode want = held == null ? mode : held.join(mode);
+            if(r.compatible(xid, want) && (r.waiters.isEmpty() || held != null)) {
+                grant(r, xid, uid, want);
+                return null;
+            }
+        } finally {
+            s.lock.unlock();
         }
-        Long x = u2x.get(uid);
-        boolean hasCycle = x != null && dfs(x);
-        pathCache.put(xid, hasCycle);  // 更新路径缓存
-        return hasCycle;
+        return addSlow(xid, uid, mode);
     }
 
+    private Waiter addSlow(long xid, long uid, LockMode mode) throws Exception {
+        graphLock.lock();
+        try {
+            Stripe s = stripe(uid);
+            DeadlockPolicy p = policy;
+            Waiter w;
+            s.lock.lock();
+            try {
+                // 离开分段锁期间资源可能已被释放
+                Resource r = s.resources.get(uid);
+                if(r == null) {
+                    r = new Resource();
+                    s.resources.put(uid, r);
+                    grant(r, xid, uid, mode);
+                    return null;
+                }
+                LockMode held = r.modeOf(xid);
+                if(held != null && held.covers(mode)) {
+                    return null;
+                }
+                boolean upgrade = held != null;
+                mode = upgrade ? held.join(mode) : mode;
+                if(r.compatible(xid, mode) && (r.waiters.isEmpty() || upgrade)) {
+                    grant(r, xid, uid, mode);
+                    return null;
+                }
+                XidLocks self = xids.get(xid);
+                if(self != null && self.wounded) {
+                    throw Error.DeadlockException;
+                }
+                if(upgrade) {
+                    r.waiters.addFirst(xid);
+                } else {
+                    r.waiters.add(xid);
+                }
+                w = new Waiter();
+                XidLocks xl = xidLocks(xid);
+                xl.waiter = w;
+                xl.waitU = uid;
+                xl.waitMode = mode;
+            } finally {
+                s.lock.unlock();
+            }
 
-    private void removeFromList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
-        if (l == null) return;
-        Iterator<Long> i = l.iterator();
-        while (i.hasNext()) {
-            long e = i.next();
-            if (e == uid1) {
-                i.remove();
-                break;
+            long[] blockers = blockers(xid, uid, mode);
+            if(p == DeadlockPolicy.WAIT_DIE) {
+                for(long b : blockers) {
+                    if(isOlder(b, xid)) {
+                        cancelWait(xid);
+                        throw Error.DeadlockException;
+                    }
+                }
+            } else if(p == DeadlockPolicy.WOUND_WAIT) {
+                for(long b : blockers) {
+                    if(isOlder(xid, b)) {
+                        wound(b);
+                    }
+                }
+            } else if(hasDeadLock(xid, blockers)) {
+                cancelWait(xid);
+                throw Error.DeadlockException;
             }
+            XidLocks xl = xids.get(xid);
+            if(xl != null && xl.waiter == w) {
+                w.timeout = TimingWheel.shared().schedule(lockWaitTimeout, () -> expireWait(xid, w));
+            }
+            return w;
+        } finally {
+            graphLock.unlock();
         }
-        if (l.size() == 0) {
-            listMap.remove(uid0);
+    }
+
+    // 以mode授予xid，mode已包含xid原先持有的模式，调用者需持有所在分段的锁
+    private void grant(Resource r, long xid, long uid, LockMode mode) {
+        if(r.modeOf(xid) == null) {
+            xidLocks(xid).add(uid);
         }
+        r.set(xid, mode);
     }
 
-    private void putIntoList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        if (!listMap.containsKey(uid0)) {
-            listMap.put(uid0, new ArrayList<>());
+    // 以mode等待uid的xid直接等待的事务：与之不相容的持有者，以及排在它前面的不相容请求，需持有graphLock
+    private long[] blockers(long xid, long uid, LockMode mode) {
+        Stripe s = stripe(uid);
+        s.lock.lock();
+        try {
+            Resource r = s.resources.get(uid);
+            if(r == null) {
+                return NO_XIDS;
+            }
+            long[] holders = r.holders.keys();
+            long[] res = new long[holders.length + r.waiters.size()];
+            int n = 0;
+            for(long h : holders) {
+                if(h != xid && !r.modeOf(h).isCompatibleWith(mode)) {
+                    res[n ++] = h;
+                }
+            }
+            for(int i = 0; i < r.waiters.size(); i ++) {
+                long ahead = r.waiters.get(i);
+                if(ahead == xid) {
+                    break;
+                }
+                XidLocks xl = xids.get(ahead);
+                if(xl != null && xl.waiter != null && !xl.waitMode.isCompatibleWith(mode)) {
+                    res[n ++] = ahead;
+                }
+            }
+            return Arrays.copyOf(res, n);
+        } finally {
+            s.lock.unlock();
         }
-        listMap.get(uid0).add(0, uid1);
     }
 
-    private boolean isInList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
-        List<Long> l = listMap.get(uid0);
-        if (l == null) return false;
-        Iterator<Long> i = l.iterator();
-        while (i.hasNext()) {
-            long e = i.next();
-            if (e == uid1) {
+    // 从xid的新等待边出发深度优先搜索等待图，回到xid即构成环，需持有graphLock
+    private boolean hasDeadLock(long xid, long[] blockers) {
+        LongHashSet visited = new LongHashSet();
+        LongArrayList stack = new LongArrayList();
+        for(long b : blockers) {
+            stack.add(b);
+        }
+        while(!stack.isEmpty()) {
+            long cur = stack.removeLast();
+            if(cur == xid) {
                 return true;
             }
+            if(!visited.add(cur)) {
+                continue;
+            }
+            XidLocks xl = xids.get(cur);
+            if(xl == null || xl.waiter == null) {
+                continue;
+            }
+            for(long b : blockers(cur, xl.waitU, xl.waitMode)) {
+                stack.add(b);
+            }
         }
         return false;
     }
 
-    private void startTimeoutDeadlockChecker() {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(CHECK_INTERVAL_MS);
-                    checkForTimeouts(TIMEOUT_THRESHOLD_MS);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+    // 回滚比请求者年轻的事务：正在等待的直接放弃等待，正在执行的由上层在下一次操作时回滚，需持有graphLock
+    private void wound(long xid) {
+        XidLocks xl = xids.get(xid);
+        if(xl == null || xl.wounded) return;
+        xl.wounded = true;
+        if(xl.waiter != null) {
+            Waiter w = xl.waiter;
+            cancelWait(xid);
+            w.abort(Error.DeadlockException);
+        }
+        if(woundHandler != null) {
+            woundHandler.accept(xid);
+        }
+    }
+
+    // 撤销xid的等待，排在它后面的请求可能因此可以授予，需持有graphLock
+    private void cancelWait(long xid) {
+        XidLocks xl = xids.get(xid);
+        if(xl == null || xl.waiter == null) return;
+        Stripe s = stripe(xl.waitU);
+        s.lock.lock();
+        try {
+            Resource r = s.resources.get(xl.waitU);
+            if(r != null) {
+                r.waiters.remove(xid);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        xl.waiter.cancelTimeout();
+        xl.waiter = null;
+        grantWaiters(xl.waitU);
+    }
+
+    // 释放xid持有的全部资源，并撤销它的等待
+    public void remove(long xid) {
+        XidLocks xl = xids.get(xid);
+        if(xl == null) return;
+
+        long[] held;
+        int size;
+        synchronized (xl) {
+            held = xl.held;
+            size = xl.size;
+        }
+        // 没有等待者的资源只需分段锁即可释放，其余的交给慢路径授予
+        long[] contended = null;
+        int n = 0;
+        for(int i = 0; i < size; i ++) {
+            long uid = held[i];
+            Stripe s = stripe(uid);
+            s.lock.lock();
+            try {
+                Resource r = s.resources.get(uid);
+                if(r == null) continue;
+                r.remove(xid);
+                if(r.waiters.isEmpty()) {
+                    if(r.isFree()) {
+                        s.resources.remove(uid);
+                    }
+                    continue;
                 }
+            } finally {
+                s.lock.unlock();
+            }
+            if(contended == null) {
+                contended = new long[size - i];
+            }
+            contended[n ++] = uid;
+        }
+
+        graphLock.lock();
+        try {
+            cancelWait(xid);
+            for(int i = 0; i < n; i ++) {
+                grantWaiters(contended[i]);
             }
-        }).start();
+            xids.remove(xid);
+        } finally {
+            graphLock.unlock();
+        }
     }
 
-    public void checkForTimeouts(long timeout) {
-        lock.lock();
+    // 按FIFO顺序授予uid队首的请求，直到遇到不相容的请求，需持有graphLock
+    private void grantWaiters(long uid) {
+        Stripe s = stripe(uid);
+        s.lock.lock();
         try {
-            long currentTime = System.currentTimeMillis();
-            Iterator<Map.Entry<Long, Long>> iterator = waitStartTime.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<Long, Long> entry = iterator.next();
-                long xid = entry.getKey();
-                long startTime = entry.getValue();
-                if (currentTime - startTime >= timeout) {
-                    // 超时，执行回滚操作
-                    rollbackTimeoutTransaction(xid);
-                    iterator.remove();  // 从等待时间记录中移除
+            Resource r = s.resources.get(uid);
+            if(r == null) return;
+            while(!r.waiters.isEmpty()) {
+                long next = r.waiters.peek();
+                XidLocks xl = xids.get(next);
+                if(xl == null || xl.waiter == null || xl.waitU != uid) {
+                    r.waiters.poll();
+                    continue;
+                }
+                if(!r.compatible(next, xl.waitMode)) {
+                    break;
                 }
+                r.waiters.poll();
+                grant(r, next, uid, xl.waitMode);
+                Waiter w = xl.waiter;
+                xl.waiter = null;
+                w.cancelTimeout();
+                w.grant();
             }
+            if(r.isFree() && r.waiters.isEmpty()) {
+                s.resources.remove(uid);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    private XidLocks xidLocks(long xid) {
+        return xids.computeIfAbsent(xid, k -> new XidLocks(ageOf.applyAsLong(k)));
+    }
+
+    // a是否比b老，年龄相同（同时开始的只读事务）时先分配的虚拟XID更老，需持有graphLock
+    private boolean isOlder(long a, long b) {
+        XidLocks xa = xids.get(a), xb = xids.get(b);
+        long ageA = xa == null ? ageOf.applyAsLong(a) : xa.age;
+        long ageB = xb == null ? ageOf.applyAsLong(b) : xb.age;
+        return ageA != ageB ? ageA < ageB : a > b;
+    }
+
+    private Stripe stripe(long uid) {
+        int h = Long.hashCode(uid);
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    // 等待超时：等待仍在进行时撤销它，await()抛出TimeoutException，由调用者回滚
+    private void expireWait(long xid, Waiter w) {
+        graphLock.lock();
+        try {
+            XidLocks xl = xids.get(xid);
+            if(xl == null || xl.waiter != w) return;
+            System.out.println("Transaction " + xid + " has timed out and will be rolled back.");
+            cancelWait(xid);
+            w.abort(Error.TimeoutException);
         } finally {
-            lock.unlock();
+            graphLock.unlock();
         }
     }
 
-    private void rollbackTimeoutTransaction(long xid) {
-        System.out.println("Transaction " + xid + " has timed out and will be rolled back.");
+    // 是否有其他事务持有uid上的锁，不登记任何信息
+    public boolean isHeldByOther(long xid, long uid) {
+        Stripe s = stripe(uid);
+        s.lock.lock();
+        try {
+            Resource r = s.resources.get(uid);
+            if(r == null) return false;
+            int n = r.holders.size();
+            return n > 1 || (n == 1 && r.modeOf(xid) == null);
+        } finally {
+            s.lock.unlock();
+        }
+    }
 
-        // 解除事务等待的资源
-        Long uid = waitU.remove(xid);
-        if (uid != null) {
-            removeFromList(wait, uid, xid);
+    // 放弃xid正在进行的等待，await()抛出reason，如语句超时
+    public void abortWait(long xid, Exception reason) {
+        graphLock.lock();
+        try {
+            XidLocks xl = xids.get(xid);
+            if(xl == null || xl.waiter == null) return;
+            Waiter w = xl.waiter;
+            cancelWait(xid);
+            w.abort(reason);
+        } finally {
+            graphLock.unlock();
         }
-        // 释放所有已占用资源
-        List<Long> resources = x2u.remove(xid);
-        if (resources != null) {
-            for (Long resource : resources) {
-                selectNewXID(resource);
+    }
+
+    /**
+     * 一次锁等待，与持有线程无关，由释放资源的线程授予
+     * await()返回即表示已获得资源，资源随事务结束由remove释放
+     */
+    public static class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int ABORTED = 2;
+
+        private int state = WAITING;
+        private Exception reason;
+        private TimingWheel.Timeout timeout;
+
+        synchronized void cancelTimeout() {
+            if(timeout != null) {
+                timeout.cancel();
             }
         }
-        // 通知等待该事务的其他线程
-        Lock l = waitLock.remove(xid);
-        if (l != null && ((ReentrantLock) l).isHeldByCurrentThread()) {
-            l.unlock();
+
+        synchronized void grant() {
+            state = GRANTED;
+            notifyAll();
+        }
+
+        synchronized void abort(Exception e) {
+            state = ABORTED;
+            reason = e;
+            notifyAll();
         }
-    }
 
+        // 阻塞直到获得资源；等待被放弃（死锁、超时、wound、语句超时）时抛出对应的异常
+        public synchronized void await() throws Exception {
+            boolean interrupted = false;
+            while(state == WAITING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if(state == ABORTED) {
+                throw reason;
+            }
+        }
 
+        // 不阻塞，是否已获得资源
+        public synchronized boolean isGranted() {
+            return state == GRANTED;
+        }
+    }
 }
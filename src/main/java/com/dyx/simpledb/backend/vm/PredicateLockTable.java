@@ -0,0 +1,380 @@
+package com.dyx.simpledb.backend.vm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
+import com.dyx.simpledb.common.Error;
+
+/**
+ * 可串行化快照隔离（SSI）
+ * 记录可串行化事务读过的记录、索引键范围和整表扫描（SIREAD锁，不阻塞任何操作），以及并发事务之间的读写反依赖 R -rw-> W：
+ * R读取的数据被与它并发的W修改，R必须排在W之前
+ * 一个事务同时存在入边和出边时构成危险结构，可能产生不可串行化的调度，需回滚其中一个事务
+ * 已提交的事务在与它并发的事务全部结束前仍需保留
+ * SIREAD锁按uid分段登记，只有产生反依赖或事务开始、结束时才进入graphLock
+ */
+public class PredicateLockTable {
+
+    private static final int STRIPES = 64;
+
+    private static class Xact {
+        final long xid;
+        final long beginSeq;
+        LongHashSet inConflicts = new LongHashSet();    // T -rw-> 本事务 中的T
+        LongHashSet outConflicts = new LongHashSet();   // 本事务 -rw-> T 中的T
+        boolean committed;
+        boolean aborted;
+        long commitSeq;     // 移出活跃集合时分配，0表示尚未分配
+        // 以下只由事务自己的线程追加，事务结束后由graphLock下的清理释放
+        LongArrayList tuples = new LongArrayList();
+        LongArrayList tables = new LongArrayList();
+        List<Range> ranges = new ArrayList<>();
+
+        Xact(long xid, long beginSeq) {
+            this.xid = xid;
+            this.beginSeq = beginSeq;
+        }
+
+        // 同时存在入边和出边
+        boolean isDangerous() {
+            return !inConflicts.isEmpty() && !outConflicts.isEmpty();
+        }
+    }
+
+    // 事务在索引index上读过的键范围[left, right]
+    private static class Range {
+        final long xid;
+        final long index;
+        final long left, right;
+
+        Range(long xid, long index, long left, long right) {
+            this.xid = xid;
+            this.index = index;
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean covers(long left, long right) {
+            return this.left <= left && right <= this.right;
+        }
+    }
+
+    private static class Stripe {
+        final Lock lock = new ReentrantLock();
+        final LongHashMap<LongHashSet> tupleReaders = new LongHashMap<>();  // uid -> 读过该记录的事务
+        final LongHashMap<LongHashSet> tableReaders = new LongHashMap<>();  // 表uid -> 扫描过该表的事务
+        final LongHashMap<List<Range>> ranges = new LongHashMap<>();        // 索引 -> 读过的键范围
+    }
+
+    private final Stripe[] stripes;
+    private final Map<Long, Xact> xacts;            // 受跟踪的可串行化事务，只在graphLock下增删
+    // 以下都在graphLock下访问
+    private final ArrayDeque<Xact> running;         // 按开始顺序排列，队首之前的事务均已结束
+    private final ArrayDeque<Xact> finished;        // 已提交的事务，按提交序号排列
+    private long seq;                               // 提交序号
+    private final Lock graphLock;
+
+    public PredicateLockTable() {
+        stripes = new Stripe[STRIPES];
+        for(int i = 0; i < STRIPES; i ++) {
+            stripes[i] = new Stripe();
+        }
+        xacts = new ConcurrentHashMap<>();
+        running = new ArrayDeque<>();
+        finished = new ArrayDeque<>();
+        graphLock = new ReentrantLock();
+    }
+
+    // 可串行化事务开始时登记，需与快照的生成原子地进行
+    public void register(long xid) {
+        graphLock.lock();
+        try {
+            Xact x = new Xact(xid, seq);
+            xacts.put(xid, x);
+            running.add(x);
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    // t将要读取uid，需在复制记录之前登记SIREAD锁
+    // 写者先修改记录再查找读者：登记之后的修改由写者发现，之前的修改出现在t读到的版本上，由readWriters发现
+    public void readTuple(long xid, long uid) {
+        Xact r = xacts.get(xid);
+        if(r == null) return;
+        Stripe s = stripe(uid);
+        s.lock.lock();
+        try {
+            if(readers(s.tupleReaders, uid).add(xid)) {
+                r.tuples.add(uid);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    // t读到的版本上对t不可见的并发修改者，记录 t -rw-> writer
+    public void readWriters(long xid, long[] writers) throws Exception {
+        if(writers.length == 0 || !xacts.containsKey(xid)) return;
+        graphLock.lock();
+        try {
+            for(long w : writers) {
+                conflict(xid, w, xid);
+            }
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    // t扫描了整张表，之后并发事务向该表插入的记录都会与之冲突
+    public void readTable(long xid, long tableUid) {
+        Xact r = xacts.get(xid);
+        if(r == null) return;
+        Stripe s = stripe(tableUid);
+        s.lock.lock();
+        try {
+            if(readers(s.tableReaders, tableUid).add(xid)) {
+                r.tables.add(tableUid);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    // t通过索引index读取了键范围[left, right]，之后并发事务插入落在该范围内的键都会与之冲突
+    public void readRange(long xid, long index, long left, long right) {
+        Xact r = xacts.get(xid);
+        if(r == null) return;
+        Stripe s = stripe(index);
+        s.lock.lock();
+        try {
+            for(Range range : r.ranges) {
+                if(range.index == index && range.covers(left, right)) {
+                    return;
+                }
+            }
+            List<Range> list = s.ranges.get(index);
+            if(list == null) {
+                list = new ArrayList<>();
+                s.ranges.put(index, list);
+            }
+            Range range = new Range(xid, index, left, right);
+            list.add(range);
+            r.ranges.add(range);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    // t删除或更新了uid，需在修改记录之后调用
+    public void write(long xid, long uid) throws Exception {
+        LongArrayList readers = new LongArrayList();
+        Stripe s = stripe(uid);
+        s.lock.lock();
+        try {
+            collect(s.tupleReaders.get(uid), readers);
+        } finally {
+            s.lock.unlock();
+        }
+        writeTo(xid, readers);
+    }
+
+    // t向表中插入了新记录，keys[i]为该记录在索引indexes[i]上的键，需在记录写入堆和索引之后调用
+    public void insert(long xid, long tableUid, long[] indexes, long[] keys) throws Exception {
+        LongArrayList readers = new LongArrayList();
+        Stripe s = stripe(tableUid);
+        s.lock.lock();
+        try {
+            collect(s.tableReaders.get(tableUid), readers);
+        } finally {
+            s.lock.unlock();
+        }
+        for(int i = 0; i < indexes.length; i ++) {
+            s = stripe(indexes[i]);
+            s.lock.lock();
+            try {
+                List<Range> list = s.ranges.get(indexes[i]);
+                if(list == null) continue;
+                for(Range range : list) {
+                    if(range.left <= keys[i] && keys[i] <= range.right) {
+                        readers.add(range.xid);
+                    }
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        writeTo(xid, readers);
+    }
+
+    private void writeTo(long xid, LongArrayList readers) throws Exception {
+        if(readers.isEmpty()) return;
+        graphLock.lock();
+        try {
+            Xact w = xacts.get(xid);
+            if(w == null) return;
+            for(int i = 0; i < readers.size(); i ++) {
+                long reader = readers.get(i);
+                Xact r = xacts.get(reader);
+                // 读者已被清理，或在写者开始前已提交，不构成并发
+                if(reader == xid || r == null || (r.commitSeq > 0 && r.commitSeq <= w.beginSeq)) {
+                    continue;
+                }
+                conflict(reader, xid, xid);
+            }
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    // 记录 reader -rw-> writer，current为正在执行操作的事务，需持有graphLock
+    // 另一方已提交且已构成危险结构时，只能回滚当前事务
+    private void conflict(long reader, long writer, long current) throws Exception {
+        if(reader == writer) return;
+        Xact r = xacts.get(reader);
+        Xact w = xacts.get(writer);
+        if(r == null || w == null) return;
+        r.outConflicts.add(writer);
+        w.inConflicts.add(reader);
+        Xact other = current == reader ? w : r;
+        if(other.committed && other.isDangerous()) {
+            throw Error.SerializationFailureException;
+        }
+    }
+
+    // 提交前检查，本事务构成危险结构时提交失败
+    // 通过检查后事务即视为已提交，不会再被回滚
+    public void prepare(long xid) throws Exception {
+        graphLock.lock();
+        try {
+            Xact x = xacts.get(xid);
+            if(x == null) return;
+            if(x.isDangerous()) {
+                throw Error.SerializationFailureException;
+            }
+            x.committed = true;
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    // 提交状态已确定、事务移出活跃集合时调用，需与快照的生成原子地进行
+    public void commit(long xid) {
+        graphLock.lock();
+        try {
+            Xact x = xacts.get(xid);
+            if(x == null) return;
+            x.commitSeq = ++ seq;
+            finished.add(x);
+            cleanup();
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    public void abort(long xid) {
+        graphLock.lock();
+        try {
+            Xact x = xacts.remove(xid);
+            if(x != null) {
+                x.aborted = true;
+                // 回滚事务的反依赖不再存在，其他事务可能因此不必回滚
+                for(long in : x.inConflicts.toArray()) {
+                    Xact r = xacts.get(in);
+                    if(r != null) r.outConflicts.remove(xid);
+                }
+                for(long out : x.outConflicts.toArray()) {
+                    Xact w = xacts.get(out);
+                    if(w != null) w.inConflicts.remove(xid);
+                }
+                releaseLocks(x);
+            }
+            cleanup();
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    // 清理不再与任何活跃事务并发的已提交事务：提交序号不大于最早的活跃事务开始时的序号
+    // 两个队列都只从队首出队，每个事务只进出一次
+    private void cleanup() {
+        while(!running.isEmpty() && (running.peek().committed || running.peek().aborted)) {
+            running.poll();
+        }
+        long minBegin = running.isEmpty() ? Long.MAX_VALUE : running.peek().beginSeq;
+        while(!finished.isEmpty() && finished.peek().commitSeq <= minBegin) {
+            Xact x = finished.poll();
+            xacts.remove(x.xid);
+            releaseLocks(x);
+        }
+    }
+
+    private void releaseLocks(Xact x) {
+        for(int i = 0; i < x.tuples.size(); i ++) {
+            removeReader(false, x.tuples.get(i), x.xid);
+        }
+        for(int i = 0; i < x.tables.size(); i ++) {
+            removeReader(true, x.tables.get(i), x.xid);
+        }
+        for(Range range : x.ranges) {
+            Stripe s = stripe(range.index);
+            s.lock.lock();
+            try {
+                List<Range> list = s.ranges.get(range.index);
+                if(list == null) continue;
+                list.remove(range);
+                if(list.isEmpty()) {
+                    s.ranges.remove(range.index);
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+
+    private void removeReader(boolean table, long key, long xid) {
+        Stripe s = stripe(key);
+        s.lock.lock();
+        try {
+            LongHashMap<LongHashSet> map = table ? s.tableReaders : s.tupleReaders;
+            LongHashSet set = map.get(key);
+            if(set == null) return;
+            set.remove(xid);
+            if(set.isEmpty()) {
+                map.remove(key);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    private static LongHashSet readers(LongHashMap<LongHashSet> map, long key) {
+        LongHashSet set = map.get(key);
+        if(set == null) {
+            set = new LongHashSet();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    private static void collect(LongHashSet set, LongArrayList to) {
+        if(set == null) return;
+        for(long x : set.toArray()) {
+            to.add(x);
+        }
+    }
+
+    private Stripe stripe(long uid) {
+        int h = Long.hashCode(uid);
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+}
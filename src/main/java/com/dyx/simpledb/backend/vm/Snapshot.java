@@ -0,0 +1,31 @@
+package com.dyx.simpledb.backend.vm;
+
+import java.util.Arrays;
+
+/**
+ * 事务快照，创建后不可变，活跃事务集合未变化时可在多个事务间共享
+ * xmin：快照中最小的活跃XID，小于它的事务在快照生成时均已结束
+ * xmax：快照生成时尚未分配的最小XID
+ * xip：快照生成时仍活跃的XID，升序排列
+ */
+public class Snapshot {
+
+    public final long xmin;
+    public final long xmax;
+    private final long[] xip;
+
+    public Snapshot(long xmax, long[] xip) {
+        Arrays.sort(xip);
+        this.xip = xip;
+        this.xmax = xmax;
+        this.xmin = xip.length == 0 ? xmax : xip[0];
+    }
+
+    // xid在快照生成时是否仍活跃
+    public boolean contains(long xid) {
+        if(xid < xmin || xid >= xmax) {
+            return false;
+        }
+        return Arrays.binarySearch(xip, xid) >= 0;
+    }
+}
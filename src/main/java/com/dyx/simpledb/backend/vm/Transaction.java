@@ -1,10 +1,12 @@
 package com.dyx.simpledb.backend.vm;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
+import com.dyx.simpledb.backend.common.LongIntHashMap;
 import com.dyx.simpledb.backend.tbm.Table;
 import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
 
@@ -12,12 +14,20 @@ import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
 public class Transaction {
     public long xid;
     public IsolationLevel isolationLevel;
-    public Map<Long, Boolean> snapshot;
-    public Exception err;
+    public Snapshot snapshot;
+    public volatile Exception err;
     public boolean autoAborted;
     public long startTime; // 添加开始时间属性
+    public boolean asyncCommit; // 异步提交，提交时不等待刷盘
+    public boolean readOnly;    // 只读事务，xid为不落盘的虚拟XID
+    public long nextXid;        // 只读事务开始时尚未分配的最小XID
+    public boolean optimistic;  // 乐观事务，写入不申请行锁，提交时验证读过的记录
     // 新增字段：记录事务中修改的表
     private Set<Table> modifiedTables = new HashSet<>();
+    private LongHashMap<LockMode> tableLocks = new LongHashMap<>();    // 表uid -> 持有的表锁
+    private LongIntHashMap rowLocks = new LongIntHashMap();             // 表uid -> 已申请的行锁数量
+    private LongArrayList inPlaceUpdates = new LongArrayList();         // 原地更新过的记录，回滚时逆序恢复
+    private LongHashSet readSet = new LongHashSet();                    // 乐观事务读过的记录
 
     // 添加修改表的方法
     public void addModifiedTable(Table table) {
@@ -29,24 +39,56 @@ public class Transaction {
         return modifiedTables;
     }
 
-    public static Transaction newTransaction(long xid, IsolationLevel isolationLevel, Map<Long, Transaction> active) {
+    public LockMode getTableLock(long tableUid) {
+        return tableLocks.get(tableUid);
+    }
+
+    public void setTableLock(long tableUid, LockMode mode) {
+        tableLocks.put(tableUid, mode);
+    }
+
+    // 在表上新申请一个行锁，返回该表上已申请的行锁数量
+    public int addRowLock(long tableUid) {
+        return rowLocks.addTo(tableUid, 1);
+    }
+
+    public void addInPlaceUpdate(long uid) {
+        inPlaceUpdates.add(uid);
+    }
+
+    public LongArrayList getInPlaceUpdates() {
+        return inPlaceUpdates;
+    }
+
+    public void addRead(long uid) {
+        readSet.add(uid);
+    }
+
+    public LongHashSet getReadSet() {
+        return readSet;
+    }
+
+    public static Transaction newTransaction(long xid, IsolationLevel isolationLevel, Snapshot snapshot) {
         Transaction t = new Transaction();
         t.xid = xid;
         t.isolationLevel = isolationLevel;
         t.startTime = System.currentTimeMillis();
         if(isolationLevel != IsolationLevel.READ_COMMITTED && isolationLevel != IsolationLevel.READ_UNCOMMITTED) {
-            t.snapshot = new HashMap<>();
-            for(Long x : active.keySet()) {
-                t.snapshot.put(x, true);
-            }
+            t.snapshot = snapshot;
         }
         return t;
     }
 
+    // xid对应的事务是否在当前事务之前开始
+    // 只读事务没有真实的XID，以开始时尚未分配的最小XID为界
+    public boolean isBefore(long xid) {
+        return readOnly ? xid < nextXid : xid < this.xid;
+    }
+
     public boolean isInSnapshot(long xid) {
         if(xid == TransactionManagerImpl.SUPER_XID) {
             return false;
         }
-        return snapshot.containsKey(xid);
+        return snapshot.contains(xid);
     }
 }
@@ -5,12 +5,25 @@ import com.dyx.simpledb.backend.tm.TransactionManager;
 
 public interface VersionManager {
     byte[] read(long xid, long uid) throws Exception;
+    // 批量读取，结果与uids的顺序一致，不可见的记录为null
+    byte[][] readBatch(long xid, long[] uids) throws Exception;
+    byte[] read(long xid, long tableUid, long uid, LockMode mode) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
-    boolean delete(long xid, long uid) throws Exception;
+    boolean delete(long xid, long tableUid, long uid) throws Exception;
+    // 更新后uid保持不变，索引无需维护
+    boolean update(long xid, long tableUid, long uid, byte[] data) throws Exception;
+    void lockTable(long xid, long tableUid, LockMode mode) throws Exception;
+    // 表的元数据锁，所有语句以S持有到事务结束，删除表时以X持有
+    void lockMetadata(long xid, long tableUid, LockMode mode) throws Exception;
 
     long begin(IsolationLevel isolationLevel);
+    long begin(IsolationLevel isolationLevel, boolean asyncCommit);
+    long begin(IsolationLevel isolationLevel, boolean asyncCommit, boolean optimistic);
+    long beginReadOnly(IsolationLevel isolationLevel);
     void commit(long xid) throws Exception;
     void abort(long xid);
+    void cancel(long xid, Exception reason);
+    void setDeadlockPolicy(DeadlockPolicy policy);
 
     public static VersionManager newVersionManager(TransactionManager tm, DataManager dm) {
         return new VersionManagerImpl(tm, dm);
@@ -18,4 +31,15 @@ public interface VersionManager {
     void physicalDelete(long xid, Long uid) throws Exception;
 
     Transaction getActiveTransaction(long xid);
+
+    // 可串行化事务的谓词读与插入，用于SSI检测幻读引起的读写反依赖
+    // 整表扫描锁住整张表，索引查找只锁住查找的键范围
+    void predicateRead(long xid, long tableUid);
+    void predicateRead(long xid, long indexUid, long left, long right);
+    // keys[i]为插入的记录在索引indexUids[i]上的键
+    void predicateWrite(long xid, long tableUid, long[] indexUids, long[] keys) throws Exception;
+
+    long getFreezeHorizon();
+    boolean freeze(long uid, long horizon) throws Exception;
+    void truncate(long horizon);
 }
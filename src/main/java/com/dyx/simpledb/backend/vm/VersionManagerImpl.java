@@ -1,16 +1,19 @@
 package com.dyx.simpledb.backend.vm;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.dyx.simpledb.backend.common.AbstractCache;
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.MemoryManager;
 import com.dyx.simpledb.backend.dm.DataManager;
+import com.dyx.simpledb.backend.dm.dataItem.DataItem;
 import com.dyx.simpledb.backend.tbm.Table;
 import com.dyx.simpledb.backend.tm.TransactionManager;
 import com.dyx.simpledb.backend.tm.TransactionManagerImpl;
@@ -19,12 +22,24 @@ import com.dyx.simpledb.common.Error;
 
 public class VersionManagerImpl extends AbstractCache<Entry> implements VersionManager {
 
+    // 事务在一张表上申请的行锁超过该数量时升级为表锁，限制锁表的内存
+    public static final int LOCK_ESCALATION_THRESHOLD = 1000;
+    private static final int ROW_LATCHES = 64;
+
     TransactionManager tm;
     DataManager dm;
     Map<Long, Transaction> activeTransaction;
-    Lock lock;
+    Lock lock;      // 只保护活跃集合的成员变化与快照生成，临界区内没有I/O
     LockTable lt;
-    private final Lock globalLock = new ReentrantLock();
+    PredicateLockTable plt;
+    private long activeVersion;         // 活跃事务集合的版本，真实XID加入或移除时递增，由lock保护
+    private Snapshot latestSnapshot;    // 最近生成的快照，版本未变化时直接共享
+    private long latestSnapshotVersion = -1;
+    private final AtomicLong virtualXid = new AtomicLong();   // 只读事务的虚拟XID，从-1递减
+    // 修改记录前检查最新版本的归属并写入，期间持有该记录的latch，只在单次修改内持有
+    private final Lock[] rowLatches;
+    // Entry、DataItem对象及缓存项的大致开销；未被引用的entry仍占住它的数据项，按两者之和计算
+    private static final int ENTRY_OVERHEAD = 224;
 
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
@@ -35,16 +50,26 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         activeTransaction.put(TransactionManagerImpl.SUPER_XID, Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, IsolationLevel.READ_COMMITTED, null));
         this.lock = new ReentrantLock();
         this.lt = new LockTable();
+        this.lt.setWoundHandler(this::wound);
+        this.lt.setAgeFunction(this::age);
+        this.plt = new PredicateLockTable();
+        this.rowLatches = new Lock[ROW_LATCHES];
+        for (int i = 0; i < ROW_LATCHES; i++) {
+            rowLatches[i] = new ReentrantLock();
+        }
+        MemoryManager memory = dm.getMemoryManager();
+        if (memory != null) {
+            memory.register(MemoryManager.Pool.ENTRY, this);
+        }
     }
 
     @Override
     public byte[] read(long xid, long uid) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
-        if (t.err != null) {
-            throw t.err;
+        checkError(t);
+        if (t.optimistic) {
+            t.addRead(uid);
         }
 
         Entry entry = null;
@@ -58,24 +83,307 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
         }
         try {
-            if (Visibility.isVisible(tm, t, entry)) {
-                return entry.data();
-            } else {
-                return null;
-            }
+            return readVisible(t, entry);
         } finally {
             entry.release();
         }
     }
 
+    // 按页分组：每组先由DM取出该页上的全部数据项，由它们直接构造entry，整组判断完可见性后才释放，期间该页一直被持有
+    @Override
+    public byte[][] readBatch(long xid, long[] uids) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+
+        checkError(t);
+
+        long[] sorted = uids.clone();
+        Arrays.sort(sorted);
+        LongHashMap<byte[]> visible = new LongHashMap<>(sorted.length);
+        int start = 0;
+        while (start < sorted.length) {
+            int end = start + 1;
+            while (end < sorted.length && (sorted[end] >>> 32) == (sorted[start] >>> 32)) {
+                end++;
+            }
+            long[] page = Arrays.copyOfRange(sorted, start, end);
+            DataItem[] items = dm.readBatch(page);
+            try {
+                for (int i = 0; i < page.length; i++) {
+                    long uid = page[i];
+                    if (visible.containsKey(uid)) {
+                        continue;
+                    }
+                    if (t.optimistic) {
+                        t.addRead(uid);
+                    }
+                    if (items[i] == null) {
+                        visible.put(uid, null);
+                        continue;
+                    }
+                    Entry entry = entryOf(uid, items[i]);
+                    items[i] = null;
+                    try {
+                        visible.put(uid, readVisible(t, entry));
+                    } finally {
+                        entry.release();
+                    }
+                }
+            } finally {
+                for (DataItem di : items) {
+                    if (di != null) di.release();
+                }
+            }
+            start = end;
+        }
+
+        byte[][] res = new byte[uids.length][];
+        for (int i = 0; i < uids.length; i++) {
+            res[i] = visible.get(uids[i]);
+        }
+        return res;
+    }
+
+    // 以已取出的数据项获取entry：entry未缓存时数据项的引用转交给新的entry，否则释放该引用
+    private Entry entryOf(long uid, DataItem di) throws Exception {
+        boolean[] used = new boolean[1];
+        try {
+            return super.get(uid, key -> {
+                used[0] = true;
+                return Entry.newEntry(this, di, key);
+            });
+        } finally {
+            if (!used[0]) {
+                di.release();
+            }
+        }
+    }
+
+    // entry对t可见的版本中的数据，没有时返回null；可串行化事务同时登记SIREAD锁和反依赖
+    // SIREAD锁在复制记录之前登记，之后的修改由写者发现
+    private byte[] readVisible(Transaction t, Entry entry) throws Exception {
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            plt.readTuple(t.xid, entry.getUid());
+        }
+        Entry node = reach(t, entry);
+        if (node == null) {
+            return null;
+        }
+        try {
+            Entry head = node.pin();
+            Entry version = Visibility.isVisible(tm, t, head) ? head : visibleVersion(t, node, head);
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                try {
+                    plt.readWriters(t.xid, concurrentWriters(t, head, version == head));
+                } catch (Exception e) {
+                    t.err = e;
+                    internAbort(t.xid, true);
+                    t.autoAborted = true;
+                    throw t.err;
+                }
+            }
+            return version != null ? version.data() : null;
+        } finally {
+            node.release();
+        }
+    }
+
+    // 沿HOT链前进：链接对t已生效时进入新版本，t为null时直到链尾
+    // 返回t停留的节点，由调用者释放；链已被清理时返回null
+    // 每一跳只原地读取NEXT和XMAX，不复制整条记录：链接时两者一起写入，撤销时一起清除，先读NEXT不会进入未链接的版本
+    private Entry reach(Transaction t, Entry head) throws Exception {
+        Entry node = super.get(head.getUid());
+        boolean restarted = false;
+        while (true) {
+            long next = node.getNext();
+            if (next == 0 || (t != null && !Visibility.isDeleteVisible(tm, t, node))) {
+                return node;
+            }
+            Entry succ = null;
+            try {
+                succ = super.get(next);
+            } catch (Exception e) {
+                if (e != Error.NullEntryException) {
+                    node.release();
+                    throw e;
+                }
+                // 中间版本被清理时前驱已指向新的后继；链尾被清理说明整行已删除
+                if (node.getNext() != next) {
+                    continue;
+                }
+                node.release();
+                if (restarted) {
+                    return null;
+                }
+                restarted = true;
+                node = super.get(head.getUid());
+                continue;
+            }
+            node.release();
+            node = succ;
+        }
+    }
+
+    // t可见的版本，没有时返回null
+    private Entry findVisible(Transaction t, Entry entry) throws Exception {
+        Entry node = reach(t, entry);
+        if (node == null) {
+            return null;
+        }
+        try {
+            return visibleVersion(t, node, node.pin());
+        } finally {
+            node.release();
+        }
+    }
+
+    // 沿版本链找到对t可见的版本，返回它的拷贝，没有时返回null
+    // head为当前版本的拷贝；旧版本在遍历期间被回滚或清理时，从最新的版本重新开始
+    private Entry visibleVersion(Transaction t, Entry entry, Entry head) throws Exception {
+        Entry version = head;
+        while (!Visibility.isVisible(tm, t, version)) {
+            long prev = version.getPrev();
+            if (prev == 0) {
+                return null;
+            }
+            Entry undo = null;
+            try {
+                undo = super.get(prev);
+            } catch (Exception e) {
+                if (e == Error.NullEntryException) {
+                    version = entry.pin();
+                    continue;
+                } else {
+                    throw e;
+                }
+            }
+            try {
+                version = undo.pin();
+                if (Visibility.isVisible(tm, t, version)) {
+                    return version;
+                }
+            } finally {
+                undo.release();
+            }
+        }
+        return version;
+    }
+
+    // 加锁后检查最新版本：t可见的版本已被其他事务删除或更新时回滚t，最新版本对t不可见时返回false
+    private boolean checkLatest(Transaction t, Entry entry, Entry head) throws Exception {
+        if (Visibility.isVersionSkip(tm, t, head)
+                || (!Visibility.isVisible(tm, t, head) && findVisible(t, entry) != null)) {
+            conflict(t);
+        }
+        return Visibility.isVisible(tm, t, head);
+    }
+
+    // 写冲突时回滚t，乐观事务返回可重试的验证失败
+    private void conflict(Transaction t) throws Exception {
+        t.err = t.optimistic ? Error.OptimisticConflictException : Error.ConcurrentUpdateException;
+        internAbort(t.xid, true);
+        t.autoAborted = true;
+        throw t.err;
+    }
+
+    // 修改前检查：最新版本由其他尚未结束的事务写入时只能是无锁的乐观事务，不等待，直接冲突
+    private void checkOwner(Transaction t, Entry head) throws Exception {
+        if (isActiveWriter(t, head.getXmin()) || isActiveWriter(t, head.getXmax())) {
+            conflict(t);
+        }
+    }
+
+    private boolean isActiveWriter(Transaction t, long x) {
+        return x != TransactionManagerImpl.SUPER_XID && x != t.xid && tm.isActive(x);
+    }
+
+    private Lock latch(long uid) {
+        int h = Long.hashCode(uid);
+        h ^= (h >>> 16);
+        return rowLatches[h & (ROW_LATCHES - 1)];
+    }
+
+    // 写入前的加锁：乐观事务只取表上的意向锁，不申请行锁，但不能修改其他事务锁住的记录
+    private void lockForWrite(Transaction t, long tableUid, long uid) throws Exception {
+        if (!t.optimistic) {
+            lockRow(t, tableUid, uid, LockMode.EXCLUSIVE);
+            return;
+        }
+        LockMode held = t.getTableLock(tableUid);
+        if (held != null && held.covers(LockMode.EXCLUSIVE)) {
+            return;
+        }
+        lockTable(t, tableUid, LockMode.INTENTION_EXCLUSIVE);
+        if (lt.isHeldByOther(t.xid, uid)) {
+            conflict(t);
+        }
+    }
+
+    // 乐观事务提交前验证读过的记录：最新版本不能由与t并发、未回滚的其他事务写入
+    private void validate(Transaction t) throws Exception {
+        for (long uid : t.getReadSet().toArray()) {
+            Entry entry = null;
+            try {
+                entry = super.get(uid);
+            } catch (Exception e) {
+                if (e == Error.NullEntryException) {
+                    continue;
+                } else {
+                    throw e;
+                }
+            }
+            Entry node = null;
+            try {
+                node = reach(null, entry);
+                if (node == null) {
+                    continue;
+                }
+                Entry head = node.pin();
+                if (isConcurrentWriter(t, head.getXmin()) || isConcurrentWriter(t, head.getXmax())) {
+                    conflict(t);
+                }
+            } finally {
+                if (node != null) node.release();
+                entry.release();
+            }
+        }
+    }
+
+    private boolean isConcurrentWriter(Transaction t, long x) {
+        return isConcurrent(t, x) && !tm.isAborted(x);
+    }
+
+    // 该版本上对t不可见的其他事务的修改：尚未生效的插入或删除
+    private long[] concurrentWriters(Transaction t, Entry entry, boolean visible) {
+        long xmin = entry.getXmin();
+        long xmax = entry.getXmax();
+        boolean minConcurrent = !visible && isConcurrent(t, xmin);
+        boolean maxConcurrent = isConcurrent(t, xmax);
+        if (minConcurrent && maxConcurrent) {
+            return new long[]{xmin, xmax};
+        } else if (minConcurrent) {
+            return new long[]{xmin};
+        } else if (maxConcurrent) {
+            return new long[]{xmax};
+        }
+        return new long[0];
+    }
+
+    // x与t并发：x在t开始时仍活跃，或在t之后开始
+    private boolean isConcurrent(Transaction t, long x) {
+        if (x == TransactionManagerImpl.SUPER_XID || x == t.xid) {
+            return false;
+        }
+        return t.isInSnapshot(x) || !t.isBefore(x);
+    }
+
     @Override
     public long insert(long xid, byte[] data) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
-        if (t.err != null) {
-            throw t.err;
+        checkError(t);
+
+        if (t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
         }
 
         byte[] raw = Entry.wrapEntryRaw(xid, data);
@@ -84,16 +392,16 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public void physicalDelete(long xid, Long uid) throws Exception {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
-        if (t.err != null) {
-            throw t.err;
+        checkError(t);
+        if (t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
         }
-        dm.physicalDelete(uid);
-
         super.release(uid);
+        // 缓存中未被引用的entry持有数据项的引用，先驱逐再删除
+        super.evict(uid);
+        dm.physicalDelete(uid);
     }
 
     @Override
@@ -102,13 +410,12 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     }
 
     @Override
-    public boolean delete(long xid, long uid) throws Exception {
-        lock.lock();
+    public boolean delete(long xid, long tableUid, long uid) throws Exception {
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
-        if (t.err != null) {
-            throw t.err;
+        checkError(t);
+        if (t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
         }
         Entry entry = null;
         try {
@@ -120,55 +427,261 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
                 throw e;
             }
         }
+        Entry node = null;
+        Lock latch = latch(uid);
         try {
-            if (!Visibility.isVisible(tm, t, entry)) {
+            if (findVisible(t, entry) == null) {
                 return false;
             }
-            Lock l = null;
+            lockForWrite(t, tableUid, uid);
+
+            // 等待期间该记录可能已被其他事务删除或更新
+            latch.lock();
             try {
-                l = lt.add(xid, uid);
-            } catch (Exception e) {
-                t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
-                t.autoAborted = true;
-                throw t.err;
+                node = reach(null, entry);
+                if (node == null) {
+                    return false;
+                }
+                Entry head = node.pin();
+                if (head.getXmax() == xid || !checkLatest(t, entry, head)) {
+                    return false;
+                }
+                checkOwner(t, head);
+                node.setXmax(xid);
+            } finally {
+                latch.unlock();
             }
-            if (l != null) {
-                l.lock();
-                l.unlock();
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                try {
+                    plt.write(xid, uid);
+                } catch (Exception e) {
+                    t.err = e;
+                    internAbort(xid, true);
+                    t.autoAborted = true;
+                    throw t.err;
+                }
             }
+            return true;
 
-            if (entry.getXmax() == xid) {
+        } finally {
+            if (node != null) node.release();
+            entry.release();
+        }
+    }
+
+    // 加锁读：以mode锁住当前可见的版本后返回它，持有到事务结束
+    @Override
+    public byte[] read(long xid, long tableUid, long uid, LockMode mode) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+
+        checkError(t);
+        if (t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
+        }
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch (Exception e) {
+            if (e == Error.NullEntryException) {
+                return null;
+            } else {
+                throw e;
+            }
+        }
+        Entry node = null;
+        try {
+            if (findVisible(t, entry) == null) {
+                return null;
+            }
+            lockRow(t, tableUid, uid, mode);
+
+            // 等待期间该版本可能已被其他事务删除或更新
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                plt.readTuple(xid, uid);
+            }
+            node = reach(null, entry);
+            if (node == null) {
+                return null;
+            }
+            Entry head = node.pin();
+            boolean visible = checkLatest(t, entry, head);
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                try {
+                    plt.readWriters(xid, concurrentWriters(t, head, visible));
+                } catch (Exception e) {
+                    t.err = e;
+                    internAbort(xid, true);
+                    t.autoAborted = true;
+                    throw t.err;
+                }
+            }
+            return visible ? head.data() : null;
+        } finally {
+            if (node != null) node.release();
+            entry.release();
+        }
+    }
+
+    // 更新记录，uid不变，记录对t不可见时返回false
+    // 新内容放得下时原地更新，旧版本写入undo记录并挂在版本链上
+    // 放不下时进行HOT更新，新版本尽量写入同一页，由链尾指向它
+    @Override
+    public boolean update(long xid, long tableUid, long uid, byte[] data) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+
+        checkError(t);
+        if (t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
+        }
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch (Exception e) {
+            if (e == Error.NullEntryException) {
+                return false;
+            } else {
+                throw e;
+            }
+        }
+        Entry node = null;
+        Lock latch = latch(uid);
+        Exception failure = null;
+        try {
+            if (findVisible(t, entry) == null) {
                 return false;
             }
+            lockForWrite(t, tableUid, uid);
 
-            if (Visibility.isVersionSkip(tm, t, entry)) {
-                t.err = Error.ConcurrentUpdateException;
+            latch.lock();
+            try {
+                node = reach(null, entry);
+                if (node == null) {
+                    return false;
+                }
+                Entry head = node.pin();
+                if (head.getXmax() == xid || !checkLatest(t, entry, head)) {
+                    return false;
+                }
+                checkOwner(t, head);
+
+                if (data.length > node.capacity()) {
+                    long next = dm.insert(xid, Entry.wrapEntryRaw(xid, data), node.getUid());
+                    node.link(xid, next);
+                    t.addInPlaceUpdate(node.getUid());
+                } else if (head.getXmin() == xid) {
+                    // 本事务写入的版本，回滚时由更早的undo记录或插入的回滚处理
+                    node.overwrite(xid, data);
+                } else {
+                    long undo = dm.insert(xid, node.undoRaw(xid), node.getUid());
+                    node.update(xid, data, undo);
+                    t.addInPlaceUpdate(node.getUid());
+                }
+                // 先修改记录再查找读者，之前登记SIREAD锁的读者由此发现，之后的读者会读到本事务的修改
+                if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                    try {
+                        plt.write(xid, uid);
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }
+            } finally {
+                latch.unlock();
+            }
+            // 回滚会恢复记录并写入XID文件，在释放latch之后进行
+            if (failure != null) {
+                t.err = failure;
                 internAbort(xid, true);
                 t.autoAborted = true;
                 throw t.err;
             }
-
-            entry.setXmax(xid);
             return true;
-
         } finally {
+            if (node != null) node.release();
             entry.release();
         }
     }
 
+    @Override
+    public void lockTable(long xid, long tableUid, LockMode mode) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+        checkError(t);
+        lockTable(t, tableUid, mode);
+    }
+
+    @Override
+    public void lockMetadata(long xid, long tableUid, LockMode mode) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+        checkError(t);
+        lockTable(t, LockTable.metadataResource(tableUid), mode);
+    }
+
+    private void lockTable(Transaction t, long tableUid, LockMode mode) throws Exception {
+        LockMode held = t.getTableLock(tableUid);
+        if (held != null && held.covers(mode)) {
+            return;
+        }
+        lock(t, tableUid, mode);
+        t.setTableLock(tableUid, held == null ? mode : held.join(mode));
+    }
+
+    // 先取得表上的意向锁再锁记录；表锁已覆盖时不再逐行加锁，行锁过多时升级为表锁
+    private void lockRow(Transaction t, long tableUid, long uid, LockMode mode) throws Exception {
+        LockMode tableMode = mode == LockMode.EXCLUSIVE ? LockMode.EXCLUSIVE : LockMode.SHARED;
+        LockMode held = t.getTableLock(tableUid);
+        if (held != null && held.covers(tableMode)) {
+            return;
+        }
+        if (t.addRowLock(tableUid) > LOCK_ESCALATION_THRESHOLD) {
+            lockTable(t, tableUid, tableMode);
+            return;
+        }
+        lockTable(t, tableUid, mode == LockMode.EXCLUSIVE ? LockMode.INTENTION_EXCLUSIVE : LockMode.INTENTION_SHARED);
+        lock(t, uid, mode);
+    }
+
+    // 获取锁，需要等待时阻塞直到获得；死锁、超时等失败时回滚事务
+    private void lock(Transaction t, long uid, LockMode mode) throws Exception {
+        try {
+            LockTable.Waiter w = lt.add(t.xid, uid, mode);
+            if (w != null) {
+                // 阻塞直到获得资源，等待超时时抛出TimeoutException
+                w.await();
+            }
+        } catch (Exception e) {
+            t.err = e == Error.DeadlockException ? Error.ConcurrentUpdateException : e;
+            internAbort(t.xid, true);
+            t.autoAborted = true;
+            throw t.err;
+        }
+    }
+
     @Override
     public long begin(IsolationLevel isolationLevel) {
-        globalLock.lock(); // 获取全局锁
+        return begin(isolationLevel, false);
+    }
+
+    @Override
+    public long begin(IsolationLevel isolationLevel, boolean asyncCommit) {
+        return begin(isolationLevel, asyncCommit, false);
+    }
+
+    // 乐观事务总是持有快照，提交验证时据此判断写入者是否与它并发
+    @Override
+    public long begin(IsolationLevel isolationLevel, boolean asyncCommit, boolean optimistic) {
         lock.lock();
         try {
-            if (isolationLevel != IsolationLevel.SERIALIZABLE) {
-                globalLock.unlock(); // 解除非全局锁
-            }
+            Snapshot snapshot = needSnapshot(isolationLevel) || optimistic ? takeSnapshot() : null;
             long xid = tm.begin();
             Transaction t = Transaction.newTransaction(
-                    xid, isolationLevel == null ? IsolationLevel.READ_COMMITTED : isolationLevel, activeTransaction);
+                    xid, isolationLevel == null ? IsolationLevel.READ_COMMITTED : isolationLevel, snapshot);
+            t.asyncCommit = asyncCommit;
+            t.optimistic = optimistic;
+            t.snapshot = snapshot;
             activeTransaction.put(xid, t);
+            activeVersion++;
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                plt.register(xid);
+            }
 
             return xid;
         } finally {
@@ -176,11 +689,31 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
     }
 
+    // 只读事务使用虚拟XID，不访问TM，也不会落盘
     @Override
-    public void commit(long xid) throws Exception {
+    public long beginReadOnly(IsolationLevel isolationLevel) {
         lock.lock();
+        try {
+            long xid = virtualXid.decrementAndGet();
+            Snapshot snapshot = needSnapshot(isolationLevel) ? takeSnapshot() : null;
+            Transaction t = Transaction.newTransaction(
+                    xid, isolationLevel == null ? IsolationLevel.READ_COMMITTED : isolationLevel, snapshot);
+            t.readOnly = true;
+            t.nextXid = tm.getXidCounter() + 1;
+            activeTransaction.put(xid, t);
+            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                plt.register(xid);
+            }
+
+            return xid;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void commit(long xid) throws Exception {
         Transaction t = activeTransaction.get(xid);
-        lock.unlock();
 
         try {
             if (t.err != null) {
@@ -192,21 +725,38 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             Panic.panic(n);
         }
 
-        lock.lock();
-        activeTransaction.remove(xid);
-        lock.unlock();
+        if (t.optimistic) {
+            validate(t);
+        }
 
+        // SSI提交检查，失败时事务被回滚
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            try {
+                plt.prepare(xid);
+            } catch (Exception e) {
+                t.err = e;
+                internAbort(xid, true);
+                t.autoAborted = true;
+                throw t.err;
+            }
+        }
+
+        if (t.readOnly) {
+            // 只读事务没有需要持久化的状态
+        } else if (t.asyncCommit) {
+            tm.commitAsync(xid);
+        } else {
+            tm.commit(xid);
+        }
+
+        // 提交状态确定后才移出活跃集合，此前生成的快照都将其视为并发事务
+        removeActive(t, true);
         lt.remove(xid);
-        tm.commit(xid);
 
         // 通知所有关联的表进行索引提交
         for (Table table : t.getModifiedTables()) {
             table.commit(xid);
         }
-
-        if (t.isolationLevel == IsolationLevel.SERIALIZABLE && globalLock.tryLock()) {
-            globalLock.unlock();  // 释放全局锁
-        }
     }
 
     @Override
@@ -214,28 +764,297 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         internAbort(xid, false);
     }
 
+    // 从其他线程中止事务正在执行的操作，事务之后的操作都将抛出reason，需由用户回滚
+    @Override
+    public void cancel(long xid, Exception reason) {
+        Transaction t = activeTransaction.get(xid);
+        if (t == null) {
+            return;
+        }
+        if (t.err == null) {
+            t.err = reason;
+        }
+        lt.abortWait(xid, reason);
+    }
+
+    @Override
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        lt.setPolicy(policy);
+    }
+
+    // 事务的新旧按开始顺序：真实XID按分配顺序，只读事务排在它开始时已分配的XID之后、下一个XID之前
+    private long age(long xid) {
+        Transaction t = activeTransaction.get(xid);
+        if (t != null && t.readOnly) {
+            return 2 * t.nextXid - 1;
+        }
+        return 2 * xid;
+    }
+
+    // 事务被更老的事务wound，在它的下一次操作时回滚
+    private void wound(long xid) {
+        Transaction t = activeTransaction.get(xid);
+        if (t != null && t.err == null) {
+            t.err = Error.ConcurrentUpdateException;
+        }
+    }
+
+    // 事务已出错时抛出错误；错误由其他线程设置（超时、wound）时在此回滚，尽快释放它持有的锁
+    private void checkError(Transaction t) throws Exception {
+        Exception err = t.err;
+        if (err == null) {
+            return;
+        }
+        if (!t.autoAborted) {
+            internAbort(t.xid, true);
+            t.autoAborted = true;
+        }
+        throw err;
+    }
+
+    // autoAborted为true时只回滚，事务仍留在活跃集合中，直到用户执行abort
     private void internAbort(long xid, boolean autoAborted) {
-        lock.lock();
         Transaction t = activeTransaction.get(xid);
+
+        if (!t.autoAborted) {
+            if (!t.readOnly) {
+                // 先于写入回滚状态恢复原地更新，恢复中途崩溃时由恢复过程按活跃事务撤销
+                restoreInPlace(t);
+                tm.abort(xid);
+            }
+            // 通知所有关联的表进行索引回滚
+            for (Table table : t.getModifiedTables()) {
+                table.rollback(xid);
+            }
+            plt.abort(xid);
+            lt.remove(xid);
+        }
         if (!autoAborted) {
-            activeTransaction.remove(xid);
+            removeActive(t, false);
         }
-        lock.unlock();
+    }
 
-        if (t.autoAborted){
-            if (t.isolationLevel == IsolationLevel.SERIALIZABLE) globalLock.unlock();  // 释放全局锁
-            return;
+    // 按更新的逆序撤销t的原地更新和HOT更新，并清除不再被引用的undo记录和新版本
+    private void restoreInPlace(Transaction t) {
+        LongArrayList uids = t.getInPlaceUpdates();
+        for (int i = uids.size() - 1; i >= 0; i--) {
+            Entry entry = null, undo = null;
+            try {
+                entry = super.get(uids.get(i));
+                Entry head = entry.pin();
+                if (head.getNext() != 0 && head.getXmax() == t.xid) {
+                    undo = super.get(head.getNext());
+                    entry.unlink(t.xid);
+                } else {
+                    undo = super.get(head.getPrev());
+                    entry.restore(t.xid, undo);
+                }
+                undo.invalidate(t.xid);
+            } catch (Exception e) {
+                Panic.panic(e);
+            } finally {
+                if (undo != null) undo.release();
+                if (entry != null) entry.release();
+            }
         }
-        lt.remove(xid);
-        tm.abort(xid);
+    }
 
-        // 通知所有关联的表进行索引提交
-        for (Table table : t.getModifiedTables()) {
-            table.rollback(xid);
+    // 与begin互斥，保证快照看到的活跃集合与XID分配一致
+    // SSI在同一临界区内为事务分配提交序号，之后开始的事务不再视其为并发
+    private void removeActive(Transaction t, boolean committed) {
+        lock.lock();
+        try {
+            activeTransaction.remove(t.xid);
+            if (!t.readOnly) {
+                activeVersion++;
+            }
+            if (committed && t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+                plt.commit(t.xid);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void predicateRead(long xid, long tableUid) {
+        Transaction t = activeTransaction.get(xid);
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            plt.readTable(xid, tableUid);
         }
+    }
 
-        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) globalLock.unlock();  // 释放全局锁
+    @Override
+    public void predicateRead(long xid, long indexUid, long left, long right) {
+        Transaction t = activeTransaction.get(xid);
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            plt.readRange(xid, indexUid, left, right);
+        }
+    }
 
+    @Override
+    public void predicateWrite(long xid, long tableUid, long[] indexUids, long[] keys) throws Exception {
+        Transaction t = activeTransaction.get(xid);
+        checkError(t);
+        if (t.isolationLevel == IsolationLevel.SERIALIZABLE) {
+            try {
+                plt.insert(xid, tableUid, indexUids, keys);
+            } catch (Exception e) {
+                t.err = e;
+                internAbort(xid, true);
+                t.autoAborted = true;
+                throw t.err;
+            }
+        }
+    }
+
+    // 冻结点：小于它的事务均已结束，且不在任何活跃事务的快照中
+    // 与begin持有同一把锁，避免新事务的快照在计算期间生成
+    @Override
+    public long getFreezeHorizon() {
+        lock.lock();
+        try {
+            long horizon = Long.MAX_VALUE;
+            for (Transaction t : activeTransaction.values()) {
+                if (t.xid == TransactionManagerImpl.SUPER_XID) {
+                    continue;
+                }
+                horizon = Math.min(horizon, t.readOnly ? t.nextXid : t.xid);
+                if (t.snapshot != null) {
+                    horizon = Math.min(horizon, t.snapshot.xmin);
+                }
+            }
+            return horizon;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean needSnapshot(IsolationLevel isolationLevel) {
+        return isolationLevel == IsolationLevel.REPEATABLE_READ || isolationLevel == IsolationLevel.SERIALIZABLE;
+    }
+
+    // 生成当前活跃事务的快照，调用者需持有lock
+    // 自上次生成以来没有真实事务开始或结束时，直接复用上一个快照
+    private Snapshot takeSnapshot() {
+        if (latestSnapshot != null && latestSnapshotVersion == activeVersion) {
+            return latestSnapshot;
+        }
+        long[] xip = new long[activeTransaction.size()];
+        int n = 0;
+        for (long x : activeTransaction.keySet()) {
+            // 跳过SUPER_XID和只读事务的虚拟XID
+            if (x > TransactionManagerImpl.SUPER_XID) {
+                xip[n++] = x;
+            }
+        }
+        latestSnapshot = new Snapshot(tm.getXidCounter() + 1, Arrays.copyOf(xip, n));
+        latestSnapshotVersion = activeVersion;
+        return latestSnapshot;
+    }
+
+    @Override
+    public boolean freeze(long uid, long horizon) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch (Exception e) {
+            if (e == Error.NullEntryException) {
+                return false;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            boolean changed = pruneChain(entry, horizon);
+            changed |= purgeVersions(entry, horizon);
+            return entry.freeze(tm, horizon) || changed;
+        } finally {
+            entry.release();
+        }
+    }
+
+    // HOT链上的后续版本不在索引中，随链头一起清理
+    // 被horizon之前提交的更新结束的中间版本从链上摘除；链尾也已删除时整条链都不再可见，链头一并置为无效
+    private boolean pruneChain(Entry head, long horizon) throws Exception {
+        boolean changed = false;
+        Entry last = head;
+        long cur = head.getNext();
+        try {
+            while (cur != 0) {
+                Entry node = null;
+                try {
+                    node = super.get(cur);
+                } catch (Exception e) {
+                    if (e == Error.NullEntryException) {
+                        break;
+                    } else {
+                        throw e;
+                    }
+                }
+                Entry pinned = node.pin();
+                long next = pinned.getNext();
+                long xmax = pinned.getXmax();
+                boolean dead = xmax != TransactionManagerImpl.SUPER_XID && xmax < horizon && pinned.isXmaxCommitted(tm, xmax);
+                if (dead && next != 0 && last.replaceNext(cur, next)) {
+                    purgeVersions(node, horizon);
+                    node.invalidate(TransactionManagerImpl.SUPER_XID);
+                    node.release();
+                    changed = true;
+                    cur = next;
+                    continue;
+                }
+                changed |= purgeVersions(node, horizon);
+                changed |= node.freeze(tm, horizon);
+                if (dead && next == 0) {
+                    head.invalidate(TransactionManagerImpl.SUPER_XID);
+                }
+                if (last != head) last.release();
+                last = node;
+                cur = next;
+            }
+        } finally {
+            if (last != head) last.release();
+        }
+        return changed;
+    }
+
+    // 当前版本已在horizon之前提交时，所有事务都能看到它，版本链上的undo记录不再需要
+    private boolean purgeVersions(Entry entry, long horizon) throws Exception {
+        Entry head = entry.pin();
+        long prev = head.getPrev();
+        long xmin = head.getXmin();
+        if (prev == 0 || xmin >= horizon || !head.isXminCommitted(tm, xmin)) {
+            return false;
+        }
+        // 期间有新的原地更新时放弃，留给下次清理
+        if (!entry.clearPrev(prev)) {
+            return false;
+        }
+        while (prev != 0) {
+            Entry undo = null;
+            try {
+                undo = super.get(prev);
+            } catch (Exception e) {
+                if (e == Error.NullEntryException) {
+                    break;
+                } else {
+                    throw e;
+                }
+            }
+            try {
+                prev = undo.getPrev();
+                undo.invalidate(TransactionManagerImpl.SUPER_XID);
+            } finally {
+                undo.release();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void truncate(long horizon) {
+        tm.truncate(horizon);
     }
 
     public void releaseEntry(Entry entry) {
@@ -256,4 +1075,14 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         entry.remove();
     }
 
+    @Override
+    protected long sizeOf(Entry entry) {
+        return ENTRY_OVERHEAD + entry.size();
+    }
+
+    @Override
+    protected boolean isStale(Entry entry) {
+        return !entry.isValid();
+    }
+
 }
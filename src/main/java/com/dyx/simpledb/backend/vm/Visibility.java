@@ -12,14 +12,33 @@ public class Visibility {
         }else if (t.isolationLevel == IsolationLevel.READ_COMMITTED){
             return false;
         }else if (t.isolationLevel == IsolationLevel.REPEATABLE_READ){
-            return tm.isCommitted(xmax) && (xmax > t.xid || t.isInSnapshot(xmax));
+            return e.isXmaxCommitted(tm, xmax) && (!t.isBefore(xmax) || t.isInSnapshot(xmax));
         }else if (t.isolationLevel == IsolationLevel.SERIALIZABLE){
-            return tm.isCommitted(xmax) && (xmax > t.xid || t.isInSnapshot(xmax));
+            return e.isXmaxCommitted(tm, xmax) && (!t.isBefore(xmax) || t.isInSnapshot(xmax));
         }else {
             throw new IllegalArgumentException("Unknown isolation level: " + t.isolationLevel);
         }
     }
 
+    // e的删除（或HOT更新）对t是否已生效
+    public static boolean isDeleteVisible(TransactionManager tm, Transaction t, Entry e) {
+        long xmax = e.getXmax();
+        if (xmax == 0) return false;
+        if (xmax == t.xid) return true;
+
+        switch (t.isolationLevel) {
+            case READ_UNCOMMITTED:
+                return true;
+            case READ_COMMITTED:
+                return e.isXmaxCommitted(tm, xmax);
+            case REPEATABLE_READ:
+            case SERIALIZABLE:
+                return e.isXmaxCommitted(tm, xmax) && t.isBefore(xmax) && !t.isInSnapshot(xmax);
+            default:
+                throw new IllegalArgumentException("Unknown isolation level: " + t.isolationLevel);
+        }
+    }
+
     public static boolean isVisible(TransactionManager tm, Transaction t, Entry e) {
         switch (t.isolationLevel) {
             case READ_UNCOMMITTED:
@@ -49,10 +68,10 @@ public class Visibility {
         long xmax = e.getXmax();
         if (xmin == xid && xmax == 0) return true;
 
-        if (tm.isCommitted(xmin)) {
+        if (e.isXminCommitted(tm, xmin)) {
             if (xmax == 0) return true;
             if (xmax != xid) {
-                if (!tm.isCommitted(xmax)) {
+                if (!e.isXmaxCommitted(tm, xmax)) {
                     return true;
                 }
             }
@@ -66,10 +85,10 @@ public class Visibility {
         long xmax = e.getXmax();
         if (xmin == xid && xmax == 0) return true;
 
-        if (tm.isCommitted(xmin) && xmin < xid && !t.isInSnapshot(xmin)) {
+        if (e.isXminCommitted(tm, xmin) && t.isBefore(xmin) && !t.isInSnapshot(xmin)) {
             if (xmax == 0) return true;
             if (xmax != xid) {
-                if (!tm.isCommitted(xmax) || xmax > xid || t.isInSnapshot(xmax)) {
+                if (!e.isXmaxCommitted(tm, xmax) || !t.isBefore(xmax) || t.isInSnapshot(xmax)) {
                     return true;
                 }
             }
@@ -86,12 +105,12 @@ public class Visibility {
         if (xmin == xid && xmax == 0) return true;
 
         // 由已提交事务创建且在当前事务之前提交
-        if (tm.isCommitted(xmin) && xmin < xid && !t.isInSnapshot(xmin)) {
+        if (e.isXminCommitted(tm, xmin) && t.isBefore(xmin) && !t.isInSnapshot(xmin)) {
             // 尚未删除
             if (xmax == 0) return true;
             // 由其他事务删除，但该删除操作尚未提交，或在当前事务之后开始，或在当前事务开始时仍未提交
             if (xmax != xid) {
-                if (!tm.isCommitted(xmax) || xmax > xid || t.isInSnapshot(xmax)) {
+                if (!e.isXmaxCommitted(tm, xmax) || !t.isBefore(xmax) || t.isInSnapshot(xmax)) {
                     return true;
                 }
             }
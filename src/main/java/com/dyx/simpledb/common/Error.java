@@ -20,6 +20,9 @@ public class Error {
     public static final Exception DeadlockException = new RuntimeException("Deadlock detected: Two or more transactions are waiting indefinitely for resources held by each other.");
     public static final Exception TimeoutException = new RuntimeException("Transaction timeout: Lock wait exceeded the maximum allowed time; consider retrying the operation.");
     public static final Exception ConcurrentUpdateException = new RuntimeException("Concurrent modification error: Data has been modified by another transaction.");
+    public static final Exception ReadOnlyTransactionException = new RuntimeException("Read-only transaction: Write operations are not allowed in a read-only transaction.");
+    public static final Exception OptimisticConflictException = new RuntimeException("Optimistic validation failed: Rows used by the transaction were modified by another transaction; retry the transaction.");
+    public static final Exception SerializationFailureException = new RuntimeException("Serialization failure: The transaction conflicts with concurrent serializable transactions; retry the transaction.");
     public static final Exception NullEntryException = new RuntimeException("Null value error: Attempted operation on a null entry.");
 
     // IM
@@ -44,6 +47,8 @@ public class Error {
     // Server
     public static final Exception NestedTransactionException = new RuntimeException("Nested transaction not allowed: The system does not support transactions within transactions.");
     public static final Exception NoTransactionException = new RuntimeException("No active transaction: Attempted operation without an active transaction context.");
+    public static final Exception StatementTimeoutException = new RuntimeException("Statement timeout: The statement exceeded the maximum execution time; the transaction must be rolled back.");
+    public static final Exception IdleTransactionTimeoutException = new RuntimeException("Idle transaction timeout: The transaction stayed idle too long and was aborted.");
 
     // Launcher
     public static final Exception InvalidMemException = new RuntimeException("Memory allocation error: The specified memory configuration is invalid or inadequate.");
@@ -0,0 +1,106 @@
+package com.dyx.simpledb;
+
+import com.dyx.simpledb.backend.utils.Parser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比复制子数组再解析与按偏移直接读取的吞吐和分配量
+ * 节点布局同B+树节点：11字节头部之后是[son][key]交替的8字节字段，模拟在节点内查找key
+ * 运行：在测试classpath下执行main，分配量见gc.alloc.rate.norm（每次操作分配的字节数）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    static final int NODE_HEADER_SIZE = 11;
+
+    @Param({"64"})
+    int keys;
+
+    byte[] node;
+    long[] targets;
+
+    @Setup
+    public void setup() {
+        node = new byte[NODE_HEADER_SIZE + keys * 16];
+        for(int i = 0; i < keys; i ++) {
+            int pos = NODE_HEADER_SIZE + i * 16;
+            Parser.putLong(node, pos, ((long)(i + 1) << 32) | i);
+            Parser.putLong(node, pos + 8, i * 10L);
+        }
+        targets = new long[keys];
+        for(int i = 0; i < keys; i ++) {
+            targets[i] = i * 10L + 5;
+        }
+    }
+
+    // 修改前的读法
+    static long copyParseLong(byte[] raw, int pos) {
+        return ByteBuffer.wrap(Arrays.copyOfRange(raw, pos, pos + 8)).getLong();
+    }
+
+    @Benchmark
+    public long copyThenParse() {
+        long sum = 0;
+        for(long key : targets) {
+            for(int i = 0; i < keys; i ++) {
+                int pos = NODE_HEADER_SIZE + i * 16;
+                if(key < copyParseLong(node, pos + 8)) {
+                    sum += copyParseLong(node, pos);
+                    break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long offsetGet() {
+        long sum = 0;
+        for(long key : targets) {
+            for(int i = 0; i < keys; i ++) {
+                int pos = NODE_HEADER_SIZE + i * 16;
+                if(key < Parser.getLong(node, pos + 8)) {
+                    sum += Parser.getLong(node, pos);
+                    break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] encodeWithLong2Byte() {
+        for(int i = 0; i < keys; i ++) {
+            System.arraycopy(Parser.long2Byte(targets[i]), 0, node, NODE_HEADER_SIZE + i * 16 + 8, 8);
+        }
+        return node;
+    }
+
+    @Benchmark
+    public byte[] encodeWithPutLong() {
+        for(int i = 0; i < keys; i ++) {
+            Parser.putLong(node, NODE_HEADER_SIZE + i * 16 + 8, targets[i]);
+        }
+        return node;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(CodecBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -3,8 +3,12 @@ package com.dyx.simpledb;
 import com.dyx.simpledb.backend.utils.Parser;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 /**
  * @User Administrator
  * @CreateTime 2024/9/4 15:54
@@ -17,4 +21,35 @@ public class ParserByteTest {
         byte[] bytes = Parser.constraintByte(true, false, true, true);
         System.out.println(Arrays.toString(bytes));
     }
+
+    // 按偏移读写的结果应与ByteBuffer的绝对读写一致
+    @Test
+    public void offsetCodecTest() {
+        byte[] raw = new byte[32];
+        ByteBuffer buf = ByteBuffer.allocate(32);
+        long[] longs = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 0x0102030405060708L};
+        for (int off = 0; off <= 24; off += 3) {
+            for (long v : longs) {
+                Parser.putLong(raw, off, v);
+                buf.putLong(off, v);
+                assertArrayEquals(buf.array(), raw);
+                assertEquals(v, Parser.getLong(raw, off));
+                Parser.putInt(raw, off, (int) v);
+                buf.putInt(off, (int) v);
+                assertEquals((int) v, Parser.getInt(raw, off));
+                Parser.putShort(raw, off, (short) v);
+                buf.putShort(off, (short) v);
+                assertEquals((short) v, Parser.getShort(raw, off));
+                Parser.putDouble(raw, off, v / 3.0);
+                buf.putDouble(off, v / 3.0);
+                assertEquals(v / 3.0, Parser.getDouble(raw, off), 0);
+                Parser.putFloat(raw, off, v / 3.0f);
+                buf.putFloat(off, v / 3.0f);
+                assertEquals(v / 3.0f, Parser.getFloat(raw, off), 0);
+                assertArrayEquals(buf.array(), raw);
+            }
+        }
+        assertEquals(0x0102030405060708L, Parser.parseLong(Parser.long2Byte(0x0102030405060708L)));
+        assertEquals("abc", Parser.parseString(Arrays.copyOf(new byte[]{0, 0, 0, 3, 'a', 'b', 'c'}, 7)).str);
+    }
 }
@@ -0,0 +1,116 @@
+package com.dyx.simpledb.common;
+
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
+import com.dyx.simpledb.backend.common.LongIntHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比装箱集合与long集合的吞吐和分配量，模拟缓存引用计数和事务读集合的访问模式
+ * 运行：在测试classpath下执行main，分配量见gc.alloc.rate.norm（每次操作分配的字节数）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LongCollectionsBenchmark {
+
+    @Param({"1024"})
+    int keys;
+
+    long[] uids;
+
+    @Setup
+    public void setup() {
+        uids = new long[keys];
+        for(int i = 0; i < keys; i ++) {
+            // 页号在高32位，页内偏移在低位
+            uids[i] = ((long)(i / 16 + 1) << 32) | (i % 16) * 64;
+        }
+    }
+
+    @Benchmark
+    public int boxedReferences() {
+        Map<Long, Object> cache = new HashMap<>();
+        Map<Long, Integer> references = new HashMap<>();
+        for(long uid : uids) {
+            cache.put(uid, uids);
+            references.put(uid, 1);
+        }
+        for(long uid : uids) {
+            references.put(uid, references.get(uid) + 1);
+            references.put(uid, references.get(uid) - 1);
+        }
+        for(long uid : uids) {
+            references.remove(uid);
+            cache.remove(uid);
+        }
+        return cache.size();
+    }
+
+    @Benchmark
+    public int primitiveReferences() {
+        LongHashMap<Object> cache = new LongHashMap<>();
+        LongIntHashMap references = new LongIntHashMap();
+        for(long uid : uids) {
+            cache.put(uid, uids);
+            references.put(uid, 1);
+        }
+        for(long uid : uids) {
+            references.addTo(uid, 1);
+            references.addTo(uid, -1);
+        }
+        for(long uid : uids) {
+            references.remove(uid);
+            cache.remove(uid);
+        }
+        return cache.size();
+    }
+
+    @Benchmark
+    public int boxedReadSet() {
+        Set<Long> set = new HashSet<>();
+        for(long uid : uids) {
+            set.add(uid);
+            set.add(uid);
+        }
+        int n = 0;
+        for(long uid : uids) {
+            if(set.contains(uid)) n ++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int primitiveReadSet() {
+        LongHashSet set = new LongHashSet();
+        for(long uid : uids) {
+            set.add(uid);
+            set.add(uid);
+        }
+        int n = 0;
+        for(long uid : uids) {
+            if(set.contains(uid)) n ++;
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(LongCollectionsBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(opt).run();
+    }
+}
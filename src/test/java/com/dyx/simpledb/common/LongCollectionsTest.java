@@ -0,0 +1,91 @@
+package com.dyx.simpledb.common;
+
+import com.dyx.simpledb.backend.common.LongArrayList;
+import com.dyx.simpledb.backend.common.LongHashMap;
+import com.dyx.simpledb.backend.common.LongHashSet;
+import com.dyx.simpledb.backend.common.LongIntHashMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongCollectionsTest {
+
+    @Test
+    public void testMapZeroKey() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertFalse(map.containsKey(0));
+        assertNull(map.put(0, "a"));
+        assertEquals("a", map.put(0, "b"));
+        assertEquals(1, map.size());
+        assertEquals("b", map.remove(0));
+        assertTrue(map.isEmpty());
+    }
+
+    // 随机增删，与HashMap对照；uid的页号在高32位，同时覆盖两种键分布
+    @Test
+    public void testMapAgainstHashMap() {
+        Random random = new Random(42);
+        for(int shift : new int[]{0, 32}) {
+            LongHashMap<Integer> map = new LongHashMap<>();
+            LongIntHashMap counts = new LongIntHashMap();
+            LongHashSet set = new LongHashSet();
+            Map<Long, Integer> expected = new HashMap<>();
+            for(int i = 0; i < 20000; i ++) {
+                long key = (long) random.nextInt(500) << shift;
+                if(random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key), map.remove(key));
+                    counts.remove(key);
+                    set.remove(key);
+                } else {
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    counts.put(key, i);
+                    set.add(key);
+                }
+                assertEquals(expected.size(), map.size());
+                assertEquals(expected.size(), counts.size());
+                assertEquals(expected.size(), set.size());
+            }
+            for(long key = 0; key < 500; key ++) {
+                long k = key << shift;
+                assertEquals(expected.get(k), map.get(k));
+                assertEquals(expected.getOrDefault(k, 0).intValue(), counts.get(k));
+                assertEquals(expected.containsKey(k), set.contains(k));
+            }
+            long[] keys = map.keys();
+            Arrays.sort(keys);
+            assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+        }
+    }
+
+    @Test
+    public void testAddTo() {
+        LongIntHashMap counts = new LongIntHashMap();
+        for(int i = 0; i < 100; i ++) {
+            counts.addTo(i % 10, 1);
+        }
+        assertEquals(10, counts.get(3));
+        assertEquals(9, counts.addTo(3, -1));
+        assertEquals(0, counts.get(10));
+    }
+
+    @Test
+    public void testList() {
+        LongArrayList list = new LongArrayList(1);
+        for(long i = 0; i < 100; i ++) {
+            list.add(i);
+        }
+        assertEquals(100, list.size());
+        assertEquals(99, list.removeLast());
+        assertEquals(42, list.get(42));
+        assertEquals(99, list.toArray().length);
+    }
+}
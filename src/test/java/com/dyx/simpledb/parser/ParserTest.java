@@ -1,7 +1,13 @@
 package com.dyx.simpledb.parser;
 
 import com.dyx.simpledb.backend.parser.Parser;
+import com.dyx.simpledb.backend.parser.statement.Begin;
 import com.dyx.simpledb.backend.parser.statement.Create;
+import com.dyx.simpledb.backend.parser.statement.SelectObj;
+import com.dyx.simpledb.backend.parser.statement.Show;
+import com.dyx.simpledb.backend.vm.IsolationLevel;
+import com.dyx.simpledb.backend.vm.LockMode;
+import com.dyx.simpledb.common.Error;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
@@ -18,6 +24,9 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 
 /**
@@ -124,4 +133,60 @@ public class ParserTest {
         System.out.println(Parser.Parse(sql2.getBytes()));
         System.out.println(Parser.Parse(sql3.getBytes()));
     }
+
+    @Test
+    public void beginOptimistic() throws Exception {
+        Begin begin = (Begin) Parser.Parse("BEGIN isolation level repeatable read optimistic async".getBytes());
+        assertEquals(IsolationLevel.REPEATABLE_READ, begin.isolationLevel);
+        assertTrue(begin.optimistic);
+        assertTrue(begin.asyncCommit);
+        begin = (Begin) Parser.Parse("BEGIN optimistic".getBytes());
+        assertEquals(IsolationLevel.READ_COMMITTED, begin.isolationLevel);
+        assertTrue(begin.optimistic);
+    }
+
+    // 选项顺序任意，重复或矛盾的选项被拒绝
+    @Test
+    public void beginOptionsInAnyOrder() throws Exception {
+        Begin begin = (Begin) Parser.Parse("BEGIN ASYNC OPTIMISTIC isolation level serializable;".getBytes());
+        assertEquals(IsolationLevel.SERIALIZABLE, begin.isolationLevel);
+        assertTrue(begin.optimistic);
+        assertTrue(begin.asyncCommit);
+        begin = (Begin) Parser.Parse("BEGIN read only isolation level repeatable read".getBytes());
+        assertEquals(IsolationLevel.REPEATABLE_READ, begin.isolationLevel);
+        assertTrue(begin.readOnly);
+        String[] invalid = {
+                "BEGIN READ ONLY OPTIMISTIC",
+                "BEGIN OPTIMISTIC READ ONLY",
+                "BEGIN ASYNC ASYNC",
+                "BEGIN isolation level read committed isolation level serializable",
+                "BEGIN isolation level read only",
+                "BEGIN READ",
+        };
+        for (String sql : invalid) {
+            try {
+                Parser.Parse(sql.getBytes());
+                fail(sql);
+            } catch (Exception e) {
+                assertSame(Error.InvalidCommandException, e);
+            }
+        }
+    }
+
+    @Test
+    public void showMemory() throws Exception {
+        Show show = (Show) Parser.Parse("SHOW MEMORY".getBytes());
+        assertTrue(show.isMemory);
+    }
+
+    @Test
+    public void selectForUpdate() throws Exception {
+        SelectObj forUpdate = (SelectObj) Parser.Parse("SELECT * FROM stock WHERE id = 1 FOR UPDATE".getBytes());
+        assertEquals(LockMode.EXCLUSIVE, forUpdate.lockMode);
+        SelectObj forShare = (SelectObj) Parser.Parse("select * from stock where id = 1 for share;".getBytes());
+        assertEquals(LockMode.SHARED, forShare.lockMode);
+        assertEquals("stock", forShare.tableName);
+        SelectObj plain = (SelectObj) Parser.Parse("SELECT * FROM stock WHERE id = 1".getBytes());
+        assertEquals(null, plain.lockMode);
+    }
 }
@@ -0,0 +1,122 @@
+package com.dyx.simpledb.tbm;
+
+import com.dyx.simpledb.backend.dm.DataManager;
+import com.dyx.simpledb.backend.server.Executor;
+import com.dyx.simpledb.backend.tbm.TableManager;
+import com.dyx.simpledb.backend.tm.TransactionManager;
+import com.dyx.simpledb.backend.vm.VersionManagerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VacuumTest {
+
+    private static final long MEM = (1 << 20) * 64;
+
+    private File dir;
+    private String path;
+    private TransactionManager tm;
+    private DataManager dm;
+    private TableManager tbm;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tbm-test").toFile();
+        path = new File(dir, "db").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, MEM, tm);
+        tbm = TableManager.create(path, new VersionManagerImpl(tm, dm), dm);
+    }
+
+    @After
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // VACUUM持有表的元数据锁期间，删除表需等待它结束
+    @Test
+    public void testDropWaitsForVacuum() throws Exception {
+        Executor vacuum = new Executor(tbm);
+        createTable(vacuum, "stu");
+        vacuum.execute("begin;".getBytes());
+        vacuum.execute("vacuum;".getBytes());
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread dropper = new Thread(() -> {
+            try {
+                new Executor(tbm).execute("drop table stu;".getBytes());
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        dropper.start();
+        dropper.join(300);
+        assertTrue(dropper.isAlive());
+
+        vacuum.execute("commit;".getBytes());
+        dropper.join(5000);
+        assertFalse(dropper.isAlive());
+        assertNull(error.get());
+        // 之后的VACUUM不再访问已删除的表
+        vacuum.execute("vacuum;".getBytes());
+        assertFalse(new String(vacuum.execute("show table;".getBytes())).contains("stu"));
+    }
+
+    // VACUUM与删除表并发执行，其余表的数据在重启后保持正确
+    @Test
+    public void testVacuumDuringDrop() throws Exception {
+        Executor exe = new Executor(tbm);
+        createTable(exe, "keep");
+        for (int i = 0; i < 10; i++) {
+            String name = "tmp" + i;
+            createTable(exe, name);
+            AtomicReference<Exception> error = new AtomicReference<>();
+            Thread dropper = new Thread(() -> {
+                try {
+                    new Executor(tbm).execute(("drop table " + name + ";").getBytes());
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            dropper.start();
+            exe.execute("vacuum;".getBytes());
+            dropper.join(5000);
+            assertFalse(dropper.isAlive());
+            assertNull(error.get());
+        }
+
+        dm.close();
+        tm.close();
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, MEM, tm);
+        exe = new Executor(TableManager.open(path, new VersionManagerImpl(tm, dm), dm));
+        String res = new String(exe.execute("select * from keep where id = 1;".getBytes()));
+        assertTrue(res, res.contains("a much longer name"));
+        res = new String(exe.execute("show table;".getBytes()));
+        assertFalse(res, res.contains("tmp"));
+    }
+
+    private void createTable(Executor exe, String name) throws Exception {
+        exe.execute(("create table " + name + " (id int primary key, name varchar);").getBytes());
+        exe.execute(("insert into " + name + " values (1, \"aa\");").getBytes());
+        exe.execute(("insert into " + name + " values (2, \"bb\");").getBytes());
+        exe.execute(("update " + name + " set name = \"a much longer name\" where id = 1;").getBytes());
+        exe.execute(("update " + name + " set name = \"cc\" where id = 2;").getBytes());
+    }
+}
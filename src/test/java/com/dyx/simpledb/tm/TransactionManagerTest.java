@@ -0,0 +1,132 @@
+package com.dyx.simpledb.tm;
+
+import com.dyx.simpledb.backend.tm.TransactionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionManagerTest {
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tm-test").toFile();
+        path = new File(dir, "db").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // 关闭时仍有未结束的事务，重启后不能重用已分配的XID
+    @Test
+    public void testReopenWithActiveTransactions() {
+        TransactionManager tm = TransactionManager.create(path);
+        long x1 = tm.begin();
+        long x2 = tm.begin();
+        long x3 = tm.begin();
+        tm.commit(x1);
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assertEquals(x3, tm.getXidCounter());
+        assertTrue(tm.isCommitted(x1));
+        assertTrue(tm.isActive(x2));
+        assertTrue(tm.isActive(x3));
+        assertEquals(x3 + 1, tm.begin());
+        tm.close();
+    }
+
+    // 没有任何状态变更时，关闭也要持久化XidCounter
+    @Test
+    public void testReopenWithoutStatusChange() {
+        TransactionManager tm = TransactionManager.create(path);
+        tm.begin();
+        long x2 = tm.begin();
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assertEquals(x2, tm.getXidCounter());
+        assertEquals(x2 + 1, tm.begin());
+        tm.close();
+    }
+
+    // Header中的XidCounter超出文件长度时，以较大者为准，缺失的状态视为active
+    @Test
+    public void testHeaderBeyondFileLength() throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        long x1 = tm.begin();
+        tm.commit(x1);
+        tm.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".xid", "rw")) {
+            raf.seek(0);
+            raf.writeLong(3);
+        }
+        tm = TransactionManager.open(path);
+        assertEquals(3, tm.getXidCounter());
+        assertTrue(tm.isCommitted(x1));
+        assertTrue(tm.isActive(3));
+        assertEquals(4, tm.begin());
+        tm.close();
+    }
+
+    // 异步提交和回滚在关闭时成组落盘
+    @Test
+    public void testAsyncCommitAndAbortPersisted() {
+        TransactionManager tm = TransactionManager.create(path);
+        tm.setAsyncCommitDelay(60_000);
+        long x1 = tm.begin();
+        long x2 = tm.begin();
+        long x3 = tm.begin();
+        tm.commitAsync(x1);
+        tm.abort(x2);
+        assertTrue(tm.isCommitted(x1));
+        assertTrue(!tm.isCommitPersisted(x1));
+        tm.commit(x3);
+        assertTrue(tm.isCommitPersisted(x1));
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assertTrue(tm.isCommitted(x1));
+        assertTrue(tm.isAborted(x2));
+        assertTrue(tm.isCommitted(x3));
+        tm.close();
+    }
+
+    // 冻结后重启，冻结的事务视为已提交，XID继续递增
+    @Test
+    public void testTruncateThenReopen() {
+        TransactionManager tm = TransactionManager.create(path);
+        long x1 = tm.begin();
+        long x2 = tm.begin();
+        long x3 = tm.begin();
+        tm.commit(x1);
+        tm.commit(x2);
+        tm.truncate(x3);
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assertTrue(tm.isCommitted(x1));
+        assertTrue(tm.isCommitted(x2));
+        assertTrue(tm.isActive(x3));
+        assertEquals(x3 + 1, tm.begin());
+        tm.close();
+    }
+}
@@ -0,0 +1,195 @@
+package com.dyx.simpledb.vm;
+
+import com.dyx.simpledb.backend.dm.DataManager;
+import com.dyx.simpledb.backend.dm.dataItem.DataItem;
+import com.dyx.simpledb.backend.tm.TransactionManager;
+import com.dyx.simpledb.backend.vm.Entry;
+import com.dyx.simpledb.backend.vm.IsolationLevel;
+import com.dyx.simpledb.backend.vm.VersionManager;
+import com.dyx.simpledb.backend.vm.VersionManagerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HotChainTest {
+
+    private static final long MEM = (1 << 20) * 64;
+
+    private File dir;
+    private TransactionManager tm;
+    private DataManager dm;
+    private VersionManager vm;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("vm-test").toFile();
+        String path = new File(dir, "db").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, MEM, tm);
+        vm = new VersionManagerImpl(tm, dm);
+    }
+
+    @After
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // 放不下的更新写入新版本并由链头指向它，uid不变，快照读仍停留在旧版本
+    @Test
+    public void testHotUpdate() throws Exception {
+        long uid = insert("aa");
+        long reader = vm.begin(IsolationLevel.REPEATABLE_READ);
+
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "bbbbbbbb".getBytes()));
+        long next = nextOf(uid);
+        assertNotEquals(0, next);
+        assertArrayEquals("aa".getBytes(), vm.read(reader, uid));
+        assertArrayEquals("bbbbbbbb".getBytes(), vm.read(xid, uid));
+        vm.commit(xid);
+
+        assertArrayEquals("aa".getBytes(), vm.read(reader, uid));
+        vm.commit(reader);
+        assertEquals("bbbbbbbb", read(uid));
+        // 新版本之后放得下的更新在链尾原地进行
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "cccccccc".getBytes()));
+        vm.commit(xid);
+        assertEquals(next, nextOf(uid));
+        assertEquals(0, nextOf(next));
+        assertEquals("cccccccc", read(uid));
+    }
+
+    // 回滚HOT更新时链头重新成为链尾，新版本被清除
+    @Test
+    public void testAbortUnlinks() throws Exception {
+        long uid = insert("aa");
+
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "bbbbbbbb".getBytes()));
+        long next = nextOf(uid);
+        vm.abort(xid);
+
+        assertEquals(0, nextOf(uid));
+        assertNull(dm.read(next));
+        assertEquals("aa", read(uid));
+
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "cccccccc".getBytes()));
+        vm.commit(xid);
+        assertEquals("cccccccc", read(uid));
+    }
+
+    // VACUUM将已死的中间版本从链上摘除，链头直接指向当前版本
+    @Test
+    public void testVacuumUnlinksDeadMiddleVersions() throws Exception {
+        long uid = insert("a");
+        long[] versions = new long[3];
+        long last = uid;
+        String[] values = {"bb", "ccc", "dddd"};
+        for (int i = 0; i < values.length; i++) {
+            long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+            assertTrue(vm.update(xid, 0, uid, values[i].getBytes()));
+            vm.commit(xid);
+            versions[i] = nextOf(last);
+            last = versions[i];
+        }
+
+        assertTrue(vm.freeze(uid, vm.getFreezeHorizon()));
+        assertEquals(versions[2], nextOf(uid));
+        assertNull(dm.read(versions[0]));
+        assertNull(dm.read(versions[1]));
+        assertEquals("dddd", read(uid));
+
+        // 链头之后仍可继续更新
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "eeeee".getBytes()));
+        vm.commit(xid);
+        assertEquals("eeeee", read(uid));
+    }
+
+    // 快照仍可能看到中间版本时，VACUUM保留它们
+    @Test
+    public void testVacuumKeepsVersionsForSnapshot() throws Exception {
+        long uid = insert("a");
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "bb".getBytes());
+        vm.commit(xid);
+        long middle = nextOf(uid);
+
+        long reader = vm.begin(IsolationLevel.REPEATABLE_READ);
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "ccc".getBytes());
+        vm.commit(xid);
+
+        vm.freeze(uid, vm.getFreezeHorizon());
+        assertEquals(middle, nextOf(uid));
+        DataItem di = dm.read(middle);
+        assertNotNull(di);
+        di.release();
+        assertArrayEquals("bb".getBytes(), vm.read(reader, uid));
+        vm.commit(reader);
+    }
+
+    // 整行删除后链尾已死，VACUUM将链头一并置为无效
+    @Test
+    public void testVacuumDropsDeletedChain() throws Exception {
+        long uid = insert("a");
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "bb".getBytes());
+        vm.commit(xid);
+        assertNotEquals(0, nextOf(uid));
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.delete(xid, 0, uid));
+        vm.commit(xid);
+
+        vm.freeze(uid, vm.getFreezeHorizon());
+        assertNull(dm.read(uid));
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertNull(vm.read(xid, uid));
+        vm.commit(xid);
+    }
+
+    private long insert(String value) throws Exception {
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        long uid = vm.insert(xid, value.getBytes());
+        vm.commit(xid);
+        return uid;
+    }
+
+    private String read(long uid) throws Exception {
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        try {
+            return new String(vm.read(xid, uid));
+        } finally {
+            vm.commit(xid);
+        }
+    }
+
+    private long nextOf(long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        try {
+            return Entry.newEntry(vm, di, uid).getNext();
+        } finally {
+            di.release();
+        }
+    }
+}
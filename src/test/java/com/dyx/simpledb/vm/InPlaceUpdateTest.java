@@ -0,0 +1,235 @@
+package com.dyx.simpledb.vm;
+
+import com.dyx.simpledb.backend.dm.DataManager;
+import com.dyx.simpledb.backend.dm.dataItem.DataItem;
+import com.dyx.simpledb.backend.server.Executor;
+import com.dyx.simpledb.backend.tbm.TableManager;
+import com.dyx.simpledb.backend.tm.TransactionManager;
+import com.dyx.simpledb.backend.vm.Entry;
+import com.dyx.simpledb.backend.vm.IsolationLevel;
+import com.dyx.simpledb.backend.vm.VersionManager;
+import com.dyx.simpledb.backend.vm.VersionManagerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InPlaceUpdateTest {
+
+    private static final long MEM = (1 << 20) * 64;
+
+    private File dir;
+    private String path;
+    private TransactionManager tm;
+    private DataManager dm;
+    private VersionManager vm;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("vm-test").toFile();
+        path = new File(dir, "db").getPath();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, MEM, tm);
+        vm = new VersionManagerImpl(tm, dm);
+    }
+
+    @After
+    public void tearDown() {
+        if (dm != null) dm.close();
+        if (tm != null) tm.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // 放得下的更新原地写入，uid不变，旧版本保存在undo记录中
+    @Test
+    public void testUpdateInPlace() throws Exception {
+        long uid = insert("aaaa");
+        assertEquals(0, prevOf(uid));
+
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "bbbb".getBytes()));
+        vm.commit(xid);
+
+        long undo = prevOf(uid);
+        assertNotEquals(0, undo);
+        assertEquals(0, nextOf(uid));
+        assertEquals("bbbb", read(uid));
+        // undo记录保存旧内容
+        DataItem di = dm.read(undo);
+        try {
+            assertArrayEquals("aaaa".getBytes(), Entry.newEntry(vm, di, undo).data());
+        } finally {
+            di.release();
+        }
+    }
+
+    // 快照读沿undo链找到快照可见的版本
+    @Test
+    public void testSnapshotReaderWalksChain() throws Exception {
+        long uid = insert("aaaa");
+        long reader = vm.begin(IsolationLevel.REPEATABLE_READ);
+
+        for (String value : new String[]{"bbbb", "cccc"}) {
+            long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+            assertTrue(vm.update(xid, 0, uid, value.getBytes()));
+            // 未提交的修改对快照不可见
+            assertArrayEquals("aaaa".getBytes(), vm.read(reader, uid));
+            vm.commit(xid);
+        }
+
+        assertArrayEquals("aaaa".getBytes(), vm.read(reader, uid));
+        vm.commit(reader);
+        assertEquals("cccc", read(uid));
+    }
+
+    // 回滚用undo记录恢复原内容，并清除不再被引用的undo记录
+    @Test
+    public void testAbortRestoresRow() throws Exception {
+        long uid = insert("aaaa");
+
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "bbbb".getBytes()));
+        // 同一事务再次更新时直接覆盖，不产生新的undo记录
+        long undo = prevOf(uid);
+        assertTrue(vm.update(xid, 0, uid, "cccc".getBytes()));
+        assertEquals(undo, prevOf(uid));
+        assertArrayEquals("cccc".getBytes(), vm.read(xid, uid));
+        vm.abort(xid);
+
+        assertEquals("aaaa", read(uid));
+        assertEquals(0, prevOf(uid));
+        assertNull(dm.read(undo));
+
+        // 回滚后仍可再次更新
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        assertTrue(vm.update(xid, 0, uid, "dddd".getBytes()));
+        vm.commit(xid);
+        assertEquals("dddd", read(uid));
+    }
+
+    // VACUUM后当前版本对所有事务可见，undo链被整条清除
+    @Test
+    public void testVacuumPurgesUndoChain() throws Exception {
+        long uid = insert("aaaa");
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "bbbb".getBytes());
+        vm.commit(xid);
+        long undo1 = prevOf(uid);
+        xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "cccc".getBytes());
+        vm.commit(xid);
+        long undo2 = prevOf(uid);
+
+        assertTrue(vm.freeze(uid, vm.getFreezeHorizon()));
+        assertEquals(0, prevOf(uid));
+        assertNull(dm.read(undo1));
+        assertNull(dm.read(undo2));
+        assertEquals("cccc", read(uid));
+    }
+
+    // 快照仍可能需要旧版本时，VACUUM不清除undo链
+    @Test
+    public void testVacuumKeepsVersionsForSnapshot() throws Exception {
+        long uid = insert("aaaa");
+        long reader = vm.begin(IsolationLevel.REPEATABLE_READ);
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        vm.update(xid, 0, uid, "bbbb".getBytes());
+        vm.commit(xid);
+
+        vm.freeze(uid, vm.getFreezeHorizon());
+        assertNotEquals(0, prevOf(uid));
+        assertArrayEquals("aaaa".getBytes(), vm.read(reader, uid));
+        vm.commit(reader);
+    }
+
+    // 更新后uid不变，不更新索引也能按索引查到新内容，重启后仍然如此
+    @Test
+    public void testIndexLookupAfterUpdate() throws Exception {
+        TableManager tbm = TableManager.create(path, vm, dm);
+        Executor exe = new Executor(tbm);
+        exe.execute("create table stu (id int primary key, name varchar);".getBytes());
+        exe.execute("insert into stu values (1, \"aa\");".getBytes());
+        exe.execute("insert into stu values (2, \"bb\");".getBytes());
+        exe.execute("update stu set name = \"cc\" where id = 1;".getBytes());
+        exe.execute("update stu set name = \"a much longer name\" where id = 2;".getBytes());
+        assertContains(exe, "select * from stu where id = 1;", "cc");
+        assertContains(exe, "select * from stu where id = 2;", "a much longer name");
+
+        dm.close();
+        tm.close();
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, MEM, tm);
+        vm = new VersionManagerImpl(tm, dm);
+        exe = new Executor(TableManager.open(path, vm, dm));
+        assertContains(exe, "select * from stu where id = 1;", "cc");
+        assertContains(exe, "select * from stu where id = 2;", "a much longer name");
+    }
+
+    // 对索引列赋相同的值不视为键变化；新值按字段类型解析后写入记录和索引
+    @Test
+    public void testUpdateIndexedColumn() throws Exception {
+        Executor exe = new Executor(TableManager.create(path, vm, dm));
+        exe.execute("create table stu (id int primary key, name varchar);".getBytes());
+        exe.execute("insert into stu values (1, \"aa\");".getBytes());
+        exe.execute("update stu set id = 1, name = \"bb\" where id = 1;".getBytes());
+        assertContains(exe, "select * from stu where id = 1;", "bb");
+
+        exe.execute("update stu set id = 3 where id = 1;".getBytes());
+        assertContains(exe, "select * from stu where id = 3;", "bb");
+        String res = new String(exe.execute("select * from stu where id = 1;".getBytes()));
+        assertTrue(res, !res.contains("bb"));
+    }
+
+    private void assertContains(Executor exe, String sql, String expected) throws Exception {
+        String res = new String(exe.execute(sql.getBytes()));
+        assertTrue(res, res.contains(expected));
+    }
+
+    private long insert(String value) throws Exception {
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        long uid = vm.insert(xid, value.getBytes());
+        vm.commit(xid);
+        return uid;
+    }
+
+    private String read(long uid) throws Exception {
+        long xid = vm.begin(IsolationLevel.READ_COMMITTED);
+        try {
+            return new String(vm.read(xid, uid));
+        } finally {
+            vm.commit(xid);
+        }
+    }
+
+    private long prevOf(long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        try {
+            return Entry.newEntry(vm, di, uid).getPrev();
+        } finally {
+            di.release();
+        }
+    }
+
+    private long nextOf(long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        try {
+            return Entry.newEntry(vm, di, uid).getNext();
+        } finally {
+            di.release();
+        }
+    }
+}
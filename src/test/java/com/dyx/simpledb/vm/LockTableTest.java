@@ -1,11 +1,16 @@
 package com.dyx.simpledb.vm;
 
+import com.dyx.simpledb.backend.vm.DeadlockPolicy;
+import com.dyx.simpledb.backend.vm.LockMode;
 import com.dyx.simpledb.backend.vm.LockTable;
 import lombok.extern.log4j.Log4j2;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.concurrent.locks.Lock;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 @Log4j2
 public class LockTableTest {
@@ -27,7 +32,7 @@ public class LockTableTest {
                     long resourceB = 200L;
 
                     log.info("Transaction " + xid1 + " trying to acquire resource A.");
-                    Lock lockA = lockTable.add(xid1, resourceA);
+                    LockTable.Waiter lockA = lockTable.add(xid1, resourceA);
 
                     if (lockA != null) {
                         log.info("Transaction " + xid1 + " acquired resource A.");
@@ -37,7 +42,7 @@ public class LockTableTest {
                     Thread.sleep(1000);
 
                     log.info("Transaction " + xid1 + " trying to acquire resource B.");
-                    Lock lockB = lockTable.add(xid1, resourceB);
+                    LockTable.Waiter lockB = lockTable.add(xid1, resourceB);
 
                     if (lockB != null) {
                         log.info("Transaction " + xid1 + " acquired resource B.");
@@ -63,7 +68,7 @@ public class LockTableTest {
                     long resourceB = 200L;
 
                     log.info("Transaction " + xid2 + " trying to acquire resource B.");
-                    Lock lockB = lockTable.add(xid2, resourceB);
+                    LockTable.Waiter lockB = lockTable.add(xid2, resourceB);
 
                     if (lockB != null) {
                         log.info("Transaction " + xid2 + " acquired resource B.");
@@ -73,7 +78,7 @@ public class LockTableTest {
                     Thread.sleep(1000);
 
                     log.info("Transaction " + xid2 + " trying to acquire resource A.");
-                    Lock lockA = lockTable.add(xid2, resourceA);
+                    LockTable.Waiter lockA = lockTable.add(xid2, resourceA);
 
                     if (lockA != null) {
                         log.info("Transaction " + xid2 + " acquired resource A.");
@@ -113,10 +118,10 @@ public class LockTableTest {
 
         // 测试1：事务1获取资源1
         try {
-            Lock lock1 = lockTable.add(xid1, uid1);
+            LockTable.Waiter lock1 = lockTable.add(xid1, uid1);
             System.out.println("Transaction " + xid1 + " acquired resource " + uid1);
             if (lock1 != null) {
-                lock1.unlock();
+                lock1.await();
             }
         } catch (Exception e) {
             System.out.println("Transaction " + xid1 + " failed to acquire resource " + uid1);
@@ -124,7 +129,7 @@ public class LockTableTest {
 
         // 测试2：事务2尝试获取已经被占用的资源1，这将导致它进入等待状态
         try {
-            Lock lock2 = lockTable.add(xid2, uid1);
+            LockTable.Waiter lock2 = lockTable.add(xid2, uid1);
             System.out.println("Transaction " + xid2 + " is waiting to acquire resource " + uid1);
         } catch (Exception e) {
             System.out.println("Transaction " + xid2 + " failed to acquire resource " + uid1);
@@ -132,10 +137,10 @@ public class LockTableTest {
 
         // 测试3：事务3获取资源2，不冲突
         try {
-            Lock lock3 = lockTable.add(xid3, uid2);
+            LockTable.Waiter lock3 = lockTable.add(xid3, uid2);
             System.out.println("Transaction " + xid3 + " acquired resource " + uid2);
             if (lock3 != null) {
-                lock3.unlock();
+                lock3.await();
             }
         } catch (Exception e) {
             System.out.println("Transaction " + xid3 + " failed to acquire resource " + uid2);
@@ -162,13 +167,158 @@ public class LockTableTest {
             System.out.println("Transaction " + xid1 + " released resource " + uid1);
 
             // 事务2应该在此时获取到资源1
-            Lock lock2 = lockTable.add(xid2, uid1);
+            LockTable.Waiter lock2 = lockTable.add(xid2, uid1);
             if (lock2 != null) {
-                lock2.unlock();
+                lock2.await();
                 System.out.println("Transaction " + xid2 + " acquired resource " + uid1 + " after xid1 released it.");
             }
         } catch (Exception e) {
             System.out.println("Transaction " + xid2 + " failed to acquire resource " + uid1);
         }
     }
+
+    @Test
+    public void testWaitDie() throws Exception {
+        lockTable.setPolicy(DeadlockPolicy.WAIT_DIE);
+        assertNull(lockTable.add(2L, 100L));
+        // 年轻的请求者直接回滚
+        try {
+            lockTable.add(3L, 100L);
+            fail("younger transaction should die");
+        } catch (Exception e) {
+            // expected
+        }
+        // 老的请求者等待
+        assertNotNull(lockTable.add(1L, 100L));
+        lockTable.remove(3L);
+        lockTable.remove(2L);
+        lockTable.remove(1L);
+    }
+
+    @Test
+    public void testWoundWait() throws Exception {
+        lockTable.setPolicy(DeadlockPolicy.WOUND_WAIT);
+        List<Long> wounded = new ArrayList<>();
+        lockTable.setWoundHandler(wounded::add);
+        assertNull(lockTable.add(2L, 100L));
+        assertNull(lockTable.add(1L, 200L));
+        // 年轻的事务等待老的事务
+        LockTable.Waiter younger = lockTable.add(2L, 200L);
+        assertNotNull(younger);
+        assertTrue(wounded.isEmpty());
+        // 老的事务wound年轻的持有者，年轻事务的等待被放弃
+        LockTable.Waiter older = lockTable.add(1L, 100L);
+        assertNotNull(older);
+        assertTrue(wounded.contains(2L));
+        try {
+            younger.await();
+            fail("wounded transaction should be aborted");
+        } catch (Exception e) {
+            // expected
+        }
+        lockTable.remove(2L);
+        older.await();
+        lockTable.remove(1L);
+    }
+
+    @Test
+    public void testSharedAndExclusive() throws Exception {
+        // 共享锁之间相容
+        assertNull(lockTable.add(1L, 100L, LockMode.SHARED));
+        assertNull(lockTable.add(2L, 100L, LockMode.SHARED));
+        // 排他锁等待全部共享锁释放
+        LockTable.Waiter writer = lockTable.add(3L, 100L, LockMode.EXCLUSIVE);
+        assertNotNull(writer);
+        // 排在排他请求之后的共享请求不能插队
+        LockTable.Waiter reader = lockTable.add(4L, 100L, LockMode.SHARED);
+        assertNotNull(reader);
+        lockTable.remove(1L);
+        assertFalse(writer.isGranted());
+        lockTable.remove(2L);
+        assertTrue(writer.isGranted());
+        assertFalse(reader.isGranted());
+        lockTable.remove(3L);
+        assertTrue(reader.isGranted());
+        lockTable.remove(4L);
+    }
+
+    @Test
+    public void testUpgradeDeadlock() throws Exception {
+        assertNull(lockTable.add(1L, 100L, LockMode.SHARED));
+        assertNull(lockTable.add(2L, 100L, LockMode.SHARED));
+        // 两个共享持有者同时升级构成死锁
+        assertNotNull(lockTable.add(1L, 100L, LockMode.EXCLUSIVE));
+        try {
+            lockTable.add(2L, 100L, LockMode.EXCLUSIVE);
+            fail("upgrade deadlock should be detected");
+        } catch (Exception e) {
+            // expected
+        }
+        lockTable.remove(2L);
+        lockTable.remove(1L);
+    }
+
+    @Test
+    public void testIntentionLocks() throws Exception {
+        long table = 1000L;
+        // 意向锁之间相容
+        assertNull(lockTable.add(1L, table, LockMode.INTENTION_SHARED));
+        assertNull(lockTable.add(2L, table, LockMode.INTENTION_EXCLUSIVE));
+        // 表级S锁与IX不相容，X锁与所有模式不相容
+        assertNotNull(lockTable.add(3L, table, LockMode.SHARED));
+        lockTable.remove(3L);
+        assertNotNull(lockTable.add(4L, table, LockMode.EXCLUSIVE));
+        lockTable.remove(4L);
+        // IX与S组合后按X处理
+        assertEquals(LockMode.EXCLUSIVE, LockMode.INTENTION_EXCLUSIVE.join(LockMode.SHARED));
+        assertTrue(LockMode.EXCLUSIVE.covers(LockMode.INTENTION_SHARED));
+        lockTable.remove(1L);
+        lockTable.remove(2L);
+    }
+
+    // 只读事务-1开始时下一个XID为5：比1~4年轻，比5及以后的事务老
+    private void readOnlyAges() {
+        lockTable.setAgeFunction(xid -> xid == -1L ? 2 * 5 - 1 : 2 * xid);
+    }
+
+    @Test
+    public void testReadOnlyAgeWaitDie() throws Exception {
+        lockTable.setPolicy(DeadlockPolicy.WAIT_DIE);
+        readOnlyAges();
+        assertNull(lockTable.add(3L, 100L, LockMode.EXCLUSIVE));
+        assertNull(lockTable.add(7L, 200L, LockMode.EXCLUSIVE));
+        // 虚拟XID虽然更小，但只读事务比持有者3年轻，直接回滚
+        try {
+            lockTable.add(-1L, 100L, LockMode.SHARED);
+            fail("read-only transaction is younger than 3");
+        } catch (Exception e) {
+            // expected
+        }
+        // 比持有者7老，等待
+        assertNotNull(lockTable.add(-1L, 200L, LockMode.SHARED));
+        lockTable.remove(-1L);
+        lockTable.remove(3L);
+        lockTable.remove(7L);
+    }
+
+    @Test
+    public void testReadOnlyAgeWoundWait() throws Exception {
+        lockTable.setPolicy(DeadlockPolicy.WOUND_WAIT);
+        readOnlyAges();
+        List<Long> wounded = new ArrayList<>();
+        lockTable.setWoundHandler(wounded::add);
+        assertNull(lockTable.add(3L, 100L, LockMode.EXCLUSIVE));
+        assertNull(lockTable.add(7L, 200L, LockMode.EXCLUSIVE));
+        // 比持有者3年轻，等待而不wound
+        assertNotNull(lockTable.add(-1L, 100L, LockMode.SHARED));
+        assertTrue(wounded.isEmpty());
+        lockTable.remove(-1L);
+        // 比持有者7老，wound它
+        assertNotNull(lockTable.add(-1L, 200L, LockMode.SHARED));
+        assertTrue(wounded.contains(7L));
+        assertFalse(wounded.contains(3L));
+        lockTable.remove(-1L);
+        lockTable.remove(3L);
+        lockTable.remove(7L);
+    }
 }
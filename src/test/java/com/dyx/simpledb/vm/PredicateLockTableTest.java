@@ -0,0 +1,104 @@
+package com.dyx.simpledb.vm;
+
+import com.dyx.simpledb.backend.vm.PredicateLockTable;
+import com.dyx.simpledb.common.Error;
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PredicateLockTableTest {
+
+    private static final long TABLE = 1000L;
+    private static final long INDEX = 2000L;
+
+    // 两个事务各自按主键查找后插入对方查找的键，构成幻读引起的写偏斜
+    @Test
+    public void testRangePhantomSkew() throws Exception {
+        PredicateLockTable plt = new PredicateLockTable();
+        plt.register(1);
+        plt.register(2);
+        plt.readRange(1, INDEX, 5, 5);
+        plt.readRange(2, INDEX, 10, 10);
+        plt.insert(1, TABLE, new long[]{INDEX}, new long[]{10});
+        plt.insert(2, TABLE, new long[]{INDEX}, new long[]{5});
+        try {
+            plt.prepare(1);
+            fail("write skew should fail");
+        } catch (Exception e) {
+            assertSame(Error.SerializationFailureException, e);
+        }
+        plt.abort(1);
+        plt.prepare(2);
+        plt.commit(2);
+    }
+
+    // 插入的键不在其他事务读过的范围内时不产生反依赖
+    @Test
+    public void testDisjointRanges() throws Exception {
+        PredicateLockTable plt = new PredicateLockTable();
+        plt.register(1);
+        plt.register(2);
+        plt.readRange(1, INDEX, 5, 5);
+        plt.readRange(2, INDEX, 10, 20);
+        plt.insert(1, TABLE, new long[]{INDEX}, new long[]{21});
+        plt.insert(2, TABLE, new long[]{INDEX}, new long[]{6});
+        plt.prepare(1);
+        plt.commit(1);
+        plt.prepare(2);
+        plt.commit(2);
+    }
+
+    // 整表扫描与任何插入冲突
+    @Test
+    public void testTableScan() throws Exception {
+        PredicateLockTable plt = new PredicateLockTable();
+        plt.register(1);
+        plt.register(2);
+        plt.readTable(1, TABLE);
+        plt.readTable(2, TABLE);
+        plt.insert(1, TABLE, new long[]{INDEX}, new long[]{100});
+        plt.insert(2, TABLE, new long[]{INDEX}, new long[]{200});
+        try {
+            plt.prepare(1);
+            fail("write skew should fail");
+        } catch (Exception e) {
+            assertSame(Error.SerializationFailureException, e);
+        }
+        plt.abort(1);
+        // 已提交的事务在并发事务结束后被清理，之后开始的事务不受其影响
+        plt.prepare(2);
+        plt.commit(2);
+        plt.register(3);
+        plt.register(4);
+        plt.readTable(3, TABLE);
+        plt.insert(4, TABLE, new long[]{INDEX}, new long[]{300});
+        plt.prepare(4);
+        plt.commit(4);
+        plt.prepare(3);
+        plt.commit(3);
+    }
+
+    // 记录级写偏斜：写者在读者登记SIREAD锁之后写入，由写者发现读者；
+    // 写者先写入时，读者在读到的版本上发现写者
+    @Test
+    public void testTupleSkew() throws Exception {
+        PredicateLockTable plt = new PredicateLockTable();
+        plt.register(1);
+        plt.register(2);
+        plt.readTuple(1, 10);
+        plt.write(2, 10);
+        plt.write(1, 20);
+        plt.readTuple(2, 20);
+        plt.readWriters(2, new long[]{1});
+        try {
+            plt.prepare(1);
+            fail("write skew should fail");
+        } catch (Exception e) {
+            assertSame(Error.SerializationFailureException, e);
+        }
+        plt.abort(1);
+        plt.prepare(2);
+        plt.commit(2);
+    }
+}
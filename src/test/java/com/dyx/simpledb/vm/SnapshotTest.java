@@ -0,0 +1,32 @@
+package com.dyx.simpledb.vm;
+
+import com.dyx.simpledb.backend.vm.Snapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+
+    @Test
+    public void testContains() {
+        Snapshot snapshot = new Snapshot(20, new long[]{15, 3, 9});
+        assertEquals(3, snapshot.xmin);
+        assertEquals(20, snapshot.xmax);
+        assertTrue(snapshot.contains(3));
+        assertTrue(snapshot.contains(9));
+        assertTrue(snapshot.contains(15));
+        assertFalse(snapshot.contains(2));
+        assertFalse(snapshot.contains(10));
+        // xmax之后的事务不在快照的活跃集合中，由调用者按开始顺序判断
+        assertFalse(snapshot.contains(20));
+    }
+
+    @Test
+    public void testEmpty() {
+        Snapshot snapshot = new Snapshot(7, new long[0]);
+        assertEquals(7, snapshot.xmin);
+        assertFalse(snapshot.contains(6));
+    }
+}